@@ -1,18 +1,51 @@
+//Formato binario: [tipo 'A'][ackNumber int][nack byte][n byte][n pares de int inicio/fin]
 package com.example.network;
 
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 
-public class AckPacket implements Serializable {
-    private final int ackNumber;
+public class AckPacket {
+    public static final byte TYPE = 'A';
+    public static final int MAX_SACK_BLOCKS = 4; // igual que TCP: hasta 4 rangos por ACK
+    public static final int MAX_SIZE = 1 + 4 + 1 + 1 + MAX_SACK_BLOCKS * 8;
+
+    private final int ackNumber;     // ACK acumulativo: último paquete recibido en orden
     private final boolean isNack;  // Nuevo: para indicar si hubo error o pérdida
+    private final int[] sackBlocks;  // pares [inicio, fin] (inclusivos) recibidos fuera de orden
 
     public AckPacket(int ackNumber, boolean isNack) {
+        this(ackNumber, isNack, new int[0]);
+    }
+
+    public AckPacket(int ackNumber, boolean isNack, int[] sackBlocks) {
         this.ackNumber = ackNumber;
         this.isNack = isNack;
+        this.sackBlocks = sackBlocks;
     }
 
     public int getAckNumber() { return ackNumber;}
 
     public boolean isNack() { return isNack; }
 
+    public int getSackBlockCount() { return sackBlocks.length / 2; }
+    public int getSackStart(int i) { return sackBlocks[2 * i]; }
+    public int getSackEnd(int i) { return sackBlocks[2 * i + 1]; }
+
+    public void writeTo(ByteBuffer dst) {
+        dst.put(TYPE).putInt(ackNumber).put((byte) (isNack ? 1 : 0)).put((byte) getSackBlockCount());
+        for (int v : sackBlocks) dst.putInt(v);
+    }
+
+    public static AckPacket readFrom(ByteBuffer src) {
+        if (src.get() != TYPE) throw new IllegalArgumentException("No es un ACK");
+        int ackNumber = src.getInt();
+        boolean nack = src.get() != 0;
+        int blocks = src.get() & 0xFF;
+        if (blocks > MAX_SACK_BLOCKS || blocks * 8 > src.remaining()) {
+            throw new IllegalArgumentException("Bloques SACK inválidos: " + blocks);
+        }
+        int[] sack = new int[blocks * 2];
+        for (int i = 0; i < sack.length; i++) sack[i] = src.getInt();
+        return new AckPacket(ackNumber, nack, sack);
+    }
+
 }
@@ -0,0 +1,122 @@
+//Benchmark del ARQ bajo red emulada: transfiere un archivo a través de ImpairmentProxy para cada configuración
+//de ventana/FEC/payload y cada condición de red, y reporta goodput, razón de retransmisión y tiempo total.
+//Servidor, proxy y cliente corren en el mismo proceso sobre loopback.
+//Uso: ArqBenchmark [archivo] [--quick] [--seed=<n>]
+package com.example.network;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ArqBenchmark {
+
+    // Configuración del emisor/receptor a comparar
+    private static final class Config {
+        final String name;
+        final int maxWindow;
+        final int fecGroup;
+        final int payload;   // 0 = el del servidor
+
+        Config(String name, int maxWindow, int fecGroup, int payload) {
+            this.name = name;
+            this.maxWindow = maxWindow;
+            this.fecGroup = fecGroup;
+            this.payload = payload;
+        }
+    }
+
+    private static final Config[] CONFIGS = {
+            new Config("ventana 16", 16, 0, 0),
+            new Config("ventana 256", TransferSession.MAX_WINDOW, 0, 0),
+            new Config("ventana 256 + FEC K=8", TransferSession.MAX_WINDOW, 8, 0),
+            new Config("ventana 256, payload 4096", TransferSession.MAX_WINDOW, 0, 4096),
+    };
+
+    private static final ImpairmentProxy.Impairment[] IMPAIRMENTS = {
+            new ImpairmentProxy.Impairment(0, 0, 0, 0, 0),
+            new ImpairmentProxy.Impairment(0.01, 0, 0, 0, 0),
+            new ImpairmentProxy.Impairment(0.05, 0, 0, 0, 0),
+            new ImpairmentProxy.Impairment(0, 20, 5, 0, 0),
+            new ImpairmentProxy.Impairment(0.01, 10, 5, 0.10, 0.05),
+    };
+
+    public static void main(String[] args) throws Exception {
+        String fileName = "audio1.mp3";
+        boolean quick = false;
+        long seed = 42;
+        for (String arg : args) {
+            if (arg.equals("--quick")) quick = true;
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(arg.substring(7));
+            else fileName = arg;
+        }
+        File file = new File(fileName).getAbsoluteFile();
+        if (!file.isFile()) {
+            System.out.println("El archivo no existe: " + fileName);
+            return;
+        }
+
+        // Servidor y cliente imprimen el resumen de cada sesión: durante las corridas se silencia la salida
+        PrintStream report = System.out;
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        report.printf("📦 %s (%d bytes)%n", file.getName(), file.length());
+        report.printf("%-28s %-44s %10s %9s %8s %s%n", "configuración", "red", "goodput", "retrans", "tiempo", "");
+
+        int configs = quick ? 2 : CONFIGS.length;
+        int impairments = quick ? 3 : IMPAIRMENTS.length;
+        for (int c = 0; c < configs; c++) {
+            Config config = CONFIGS[c];
+            System.setOut(quiet);
+            Server server = new Server(file.getParentFile().toPath(), 0);
+            server.setMaxWindow(config.maxWindow);
+            Thread serverThread = new Thread(() -> {
+                try {
+                    server.loop();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, "bench-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            InetSocketAddress serverAddr = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+
+            for (int i = 0; i < impairments; i++) {
+                ImpairmentProxy.Impairment impairment = IMPAIRMENTS[i];
+                Path out = Files.createTempFile("arqbench", ".mp3");
+                long elapsed;
+                long dataSent;
+                try (ImpairmentProxy proxy = new ImpairmentProxy(0, serverAddr, impairment, seed + i).start()) {
+                    Client client = new Client(InetAddress.getLoopbackAddress(), proxy.getPort(), file.getName(),
+                            out.toString(), config.fecGroup, null, 0, 0, false);
+                    client.setPayloadSize(config.payload);
+                    System.setOut(quiet);
+                    long start = System.currentTimeMillis();
+                    client.receive();
+                    // Hasta el último paquete en orden: no cuenta la espera final (linger) del cliente
+                    long end = client.getCompletedAt();
+                    elapsed = (end < 0 ? System.currentTimeMillis() : end) - start;
+                    dataSent = proxy.getDataFromServer();
+                } finally {
+                    System.setOut(report);
+                }
+
+                boolean ok = Files.mismatch(out, file.toPath()) == -1;
+                Files.deleteIfExists(out);
+                Files.deleteIfExists(Paths.get(out + ".progress"));
+
+                int payload = config.payload == 0 ? TransferSession.DEFAULT_PACKET_SIZE : config.payload;
+                long packets = (file.length() + payload - 1) / payload;
+                double seconds = Math.max(1, elapsed) / 1000.0;
+                report.printf("%-28s %-44s %7.1f KB/s %8.1f%% %7.2fs %s%n", config.name, impairment,
+                        file.length() / 1024.0 / seconds, 100.0 * (dataSent - packets) / packets, seconds,
+                        ok ? "✅" : "❌ archivo distinto");
+            }
+        }
+        // El hilo del servidor es daemon: terminar el proceso lo cierra
+        System.exit(0);
+    }
+}
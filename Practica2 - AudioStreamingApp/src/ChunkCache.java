@@ -0,0 +1,94 @@
+//Caché LRU de archivos en memoria compartida por todas las sesiones del servidor, acotada en bytes.
+//La clave es la ruta; si cambia la fecha de modificación o el tamaño, la entrada se descarta y se vuelve a cargar.
+//Cada sesión corta sus paquetes como vistas (slice) del mismo buffer, sin copiar.
+package com.example.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ChunkCache {
+    private static final class Entry {
+        final long lastModified;
+        final ByteBuffer data;   // solo lectura; cada sesión toma sus propias vistas
+
+        Entry(long lastModified, ByteBuffer data) {
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+
+    private final long capacityBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // orden de acceso = LRU
+    private long usedBytes = 0;
+    private long hits = 0, misses = 0, evictions = 0, invalidations = 0;
+
+    public ChunkCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    // Devuelve el contenido del archivo o null si no cabe en la caché (el llamador lo mapea como antes)
+    public synchronized ByteBuffer get(File file) throws IOException {
+        String key = file.getPath();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.lastModified == lastModified && entry.data.capacity() == file.length()) {
+                hits++;
+                return entry.data.duplicate();
+            }
+            entries.remove(key); // el archivo cambió en disco
+            usedBytes -= entry.data.capacity();
+            invalidations++;
+        }
+        misses++;
+        long size = file.length();
+        if (size > capacityBytes) return null;
+
+        ByteBuffer data = load(file, (int) size);
+        evictUntilFits(size);
+        entries.put(key, new Entry(lastModified, data));
+        usedBytes += size;
+        return data.duplicate();
+    }
+
+    private void evictUntilFits(long incoming) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes + incoming > capacityBytes && it.hasNext()) {
+            usedBytes -= it.next().data.capacity();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static ByteBuffer load(File file, int size) throws IOException {
+        ByteBuffer data = ByteBuffer.allocateDirect(size);
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (data.hasRemaining() && fc.read(data) >= 0) { }
+        }
+        data.flip();
+        return data.asReadOnlyBuffer();
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized long getUsedBytes() { return usedBytes; }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("aciertos %d/%d (%.0f%%), expulsiones %d, invalidaciones %d, %.1f/%.1f MB en uso",
+                hits, hits + misses, getHitRatio() * 100, evictions, invalidations,
+                usedBytes / 1048576.0, capacityBytes / 1048576.0);
+    }
+}
@@ -2,93 +2,536 @@ package com.example.network;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import javazoom.jl.player.AudioDevice;
+import javazoom.jl.player.FactoryRegistry;
+import javazoom.jl.player.NullAudioDevice;
 import javazoom.jl.player.Player;
 
 public class Client {
-    private static final int PORT = 6000; // puerto donde escucha el cliente
     private static final int SERVER_PORT = 5000;
-    private static final int PACKET_SIZE = 2048;
+    private static final int REQUEST_RETRY_MS = 1000;  // reintento de la solicitud si no llega nada
+    private static final int MAX_REQUEST_ATTEMPTS = 5;
+    private static final int LINGER_MS = 500;          // re-confirmar duplicados por si se perdió el último ACK
+    private static final int RECEIVE_TIMEOUT_MS = 10000; // 10 segundos de espera máxima
+    private static final int MAX_DATAGRAM = 65507;
+    private static final int MAX_BATCH = 256;     // datagramas drenados por despertar antes de enviar el ACK
+    private static final int RECEIVE_WINDOW = 256; // paquetes que se aceptan por delante del esperado
+    private static final int OFFSET_RING = RECEIVE_WINDOW * 2; // cubre la ventana más un grupo FEC por detrás
+    private static final int JITTER_CAPACITY = 256 * 1024;
+    private static final int DEFAULT_PREBUFFER_KB = 16; // ~1 s a 128 kbps
+    private static final int PROGRESS_EVERY = 64;       // cada cuántos paquetes en orden se guarda el avance
+    private static final int SKIP_LOW_WATER = 4 * 1024; // con --skip-lost: por debajo de esto el hueco cuenta
+    private static final int SKIP_AFTER_MS = 200;       // tiempo que el reproductor espera un hueco antes de saltarlo
+
+    private final InetAddress serverAddress;
+    private final int serverPort;
+    private final String requestedFile;
+    private final String outputFile;
+    private final int fecGroup;
+    private final JitterBuffer jitter;   // null si no se reproduce en streaming
+    private long startOffset;            // rango pedido [startOffset, endOffset); endOffset = 0 → hasta EOF
+    private final long endOffset;
+    private final boolean resume;        // continuar desde el avance guardado en <salida>.progress
+    private final Path progressFile;
+
+    private int payloadSize = 0;          // 0 = el tamaño por defecto del servidor
+    private int receiveBufferSize = 0;    // SO_RCVBUF; 0 = el del SO
+    private boolean frameAligned = false; // pedir paquetes con frames MP3 completos
+    private boolean skipLost = false;     // el reproductor salta paquetes que no llegan a tiempo
+
+    // Estado de la recepción
+    private DatagramChannel channel;
+    private FileChannel out;
+    private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM); // reutilizado en cada lectura
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(RequestPacket.MAX_SIZE);
+    private int expectedSeqNum = 0;
+    private int totalPackets = -1;
+    private int lastAccepted = -1;     // último paquete escrito (va en el primer bloque SACK)
+    private final BitSet received = new BitSet(); // qué paquetes ya se escribieron en disco
+    private final long[] startOffsets = new long[OFFSET_RING]; // posición de cada paquete reciente
+    private final long[] endOffsets = new long[OFFSET_RING];
+    private long contiguousBytes = 0;  // bytes en orden ya escritos en disco
+    private long deliveredBytes = 0;   // bytes ya entregados al reproductor
+    private long firstPacketAt = -1;
+    private long completedAt = -1;     // cuando se escribió el último paquete en orden (sin contar linger)
+    private long packetsReceived = 0;  // datagramas de datos, incluidos duplicados
+    private long duplicates = 0;
+    private long acksSent = 0;
+    private final ByteBuffer feedBuffer = ByteBuffer.allocate(8 * 1024);
+    private int playSeq = 0;           // primer paquete del tramo que se está reproduciendo (avanza al saltar)
+    private int holeSeq = -1;          // hueco que está frenando al reproductor y desde cuándo
+    private long holeSince = -1;
+    private int skippedPackets = 0;
+
+    // FEC: paridades en espera (clave = primer seq del grupo) y contadores
+    private final Map<Integer, ParityPacket> parities = new HashMap<>();
+    private int highestReported = -1;  // fin del bloque SACK más alto ya enviado al servidor
+    private int recoveredByFec = 0;
+    private int filledByRetransmission = 0;
+
+    public Client(InetAddress serverAddress, int serverPort, String requestedFile, String outputFile,
+                  int fecGroup, JitterBuffer jitter, long startOffset, long endOffset, boolean resume) {
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.requestedFile = requestedFile;
+        this.outputFile = outputFile;
+        this.fecGroup = fecGroup;
+        this.jitter = jitter;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.resume = resume;
+        this.progressFile = Paths.get(outputFile + ".progress");
+    }
+
+    public void setPayloadSize(int payloadSize) { this.payloadSize = payloadSize; }
+    public void setReceiveBufferSize(int bytes) { this.receiveBufferSize = bytes; }
+    public void setFrameAligned(boolean frameAligned) { this.frameAligned = frameAligned; }
+    public void setSkipLost(boolean skipLost) { this.skipLost = skipLost; }
+    public long getCompletedAt() { return completedAt; }
 
     public static void main(String[] args) {
-        try (DatagramSocket socket = new DatagramSocket(PORT)) {
-            socket.setSoTimeout(10000); // 10 segundos de espera máxima
-            InetAddress serverAddress = InetAddress.getByName("localhost");
-
-            int expectedSeqNum = 0;
-            Map<Integer, byte[]> receivedData = new HashMap<>();
-
-            boolean receiving = true;
-            String outputFile = "received_song.mp3";
-            System.out.println("🎧 Cliente esperando paquetes...");
-
-            while (receiving) {
-                try {
-                    byte[] buffer = new byte[PACKET_SIZE * 2];
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-
-                    Packet receivedPacket = (Packet) deserialize(buffer);
-
-                    // ✅ Verifica si es el paquete esperado
-                    if (receivedPacket.getSequenceNumber() == expectedSeqNum) {
-                        System.out.println("📩 Recibido paquete #" + receivedPacket.getSequenceNumber());
-                        receivedData.put(receivedPacket.getSequenceNumber(), receivedPacket.getData());
-
-                        // Envía ACK
-                        AckPacket ack = new AckPacket(receivedPacket.getSequenceNumber(), false);
-                        sendAck(socket, serverAddress, SERVER_PORT, ack);
-                        expectedSeqNum++;
-
-                        // Si es el último paquete, salimos
-                        if (expectedSeqNum == receivedPacket.getTotalPackets()) {
-                            System.out.println("🎵 Último paquete recibido.");
-                            receiving = false;
-                        }
-                    } else {
-                        // Paquete fuera de orden → NACK
-                        System.out.println("Paquete fuera de orden. Esperaba #" + expectedSeqNum +
-                                " pero recibí #" + receivedPacket.getSequenceNumber());
-                        AckPacket nack = new AckPacket(expectedSeqNum - 1, true);
-                        sendAck(socket, serverAddress, SERVER_PORT, nack);
-                    }
+        // Opciones: --file=<nombre en el servidor>, --server=<host>[:puerto], --out=<archivo local>,
+        // --fec=<K> (una paridad por cada K paquetes), --stream (reproducir mientras se descarga),
+        // --prebuffer=<KB>, --null-audio (sin tarjeta de sonido),
+        // --seek=<byte> o --range=<inicio>-[fin] (pedir solo una parte), --resume (continuar una descarga cortada),
+        // --payload=<B> (bytes de datos por paquete, hasta el MTU de la ruta), --rcvbuf=<B> (SO_RCVBUF),
+        // --trace (traza por paquete en un hilo aparte), --frames (paquetes con frames MP3 completos),
+        // --skip-lost (streaming que salta los paquetes que no llegan a tiempo; implica --stream y --frames)
+        String requestedFile = "audio1.mp3";
+        String serverHost = "localhost";
+        int serverPort = SERVER_PORT;
+        String outputFile = "received_song.mp3";
+        int fecGroup = 0;
+        boolean streaming = false;
+        boolean nullAudio = false;
+        int prebufferKb = DEFAULT_PREBUFFER_KB;
+        long startOffset = 0, endOffset = 0;
+        boolean resume = false;
+        int payloadSize = 0, rcvBuf = 0;
+        boolean frames = false, skipLost = false;
+        for (String arg : args) {
+            if (arg.startsWith("--payload=")) payloadSize = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--rcvbuf=")) rcvBuf = Integer.parseInt(arg.substring(9));
+            else if (arg.equals("--trace")) PacketTrace.enable();
+            else if (arg.equals("--frames")) frames = true;
+            else if (arg.equals("--skip-lost")) skipLost = frames = streaming = true;
+            else if (arg.equals("--stream")) streaming = true;
+            else if (arg.equals("--resume")) resume = true;
+            else if (arg.startsWith("--seek=")) startOffset = Long.parseLong(arg.substring(7));
+            else if (arg.startsWith("--range=")) {
+                String[] r = arg.substring(8).split("-", 2);
+                startOffset = Long.parseLong(r[0]);
+                if (r.length == 2 && !r[1].isEmpty()) endOffset = Long.parseLong(r[1]);
+            }
+            else if (arg.equals("--null-audio")) nullAudio = true;
+            else if (arg.startsWith("--prebuffer=")) prebufferKb = Integer.parseInt(arg.substring(12));
+            else if (arg.startsWith("--file=")) requestedFile = arg.substring(7);
+            else if (arg.startsWith("--out=")) outputFile = arg.substring(6);
+            else if (arg.startsWith("--fec=")) fecGroup = Integer.parseInt(arg.substring(6));
+            else if (arg.startsWith("--server=")) {
+                String[] hp = arg.substring(9).split(":", 2);
+                serverHost = hp[0];
+                if (hp.length == 2) serverPort = Integer.parseInt(hp[1]);
+            }
+        }
+
+        try {
+            JitterBuffer jitter = null;
+            Thread playThread = null;
+            if (streaming) {
+                jitter = new JitterBuffer(JITTER_CAPACITY, prebufferKb * 1024);
+                playThread = startStreamingPlayer(jitter, nullAudio);
+            }
+
+            Client client = new Client(InetAddress.getByName(serverHost), serverPort, requestedFile,
+                    outputFile, fecGroup, jitter, startOffset, endOffset, resume);
+            client.setPayloadSize(payloadSize);
+            client.setReceiveBufferSize(rcvBuf);
+            client.setFrameAligned(frames);
+            client.setSkipLost(skipLost);
+            client.receive();
+
+            if (jitter != null) {
+                playThread.join();
+                long firstAudio = jitter.getFirstAudioAt();
+                System.out.println("📊 Tiempo hasta el primer audio: "
+                        + (firstAudio < 0 || client.firstPacketAt < 0 ? "n/a" : (firstAudio - client.firstPacketAt) + " ms")
+                        + "; vacíos de buffer: " + jitter.getUnderruns()
+                        + " (" + jitter.getStallMillis() + " ms detenido)");
+            } else {
+                 // 🔊 Reproducir MP3 con opción de pausar y reanudar
+                playAudioWithConsoleControl(outputFile);
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Descarga el archivo solicitado escribiendo cada paquete directo en su posición en disco
+    public void receive() throws IOException {
+        boolean resuming = resume && loadProgress();
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (!resuming && startOffset == 0) options.add(StandardOpenOption.TRUNCATE_EXISTING);
+        contiguousBytes = deliveredBytes = startOffset;
+
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open();
+             FileChannel out = FileChannel.open(Paths.get(outputFile), options)) {
+            if (receiveBufferSize > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            // Puerto efímero y conectado: el servidor responde a quien pide y se ignora a cualquier otro
+            channel.connect(new InetSocketAddress(serverAddress, serverPort));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            this.channel = channel;
+            this.out = out;
+
+            int requestAttempts = 1;
+            RequestPacket request = new RequestPacket(requestedFile, fecGroup, startOffset, endOffset, payloadSize,
+                    frameAligned ? RequestPacket.FLAG_FRAME_ALIGNED : 0, RECEIVE_WINDOW);
+            sendRequest(request);
+            System.out.println("🎧 Solicitado " + requestedFile
+                    + (startOffset > 0 ? " desde el byte " + startOffset : "") + ", esperando paquetes...");
 
-                } catch (SocketTimeoutException e) {
+            boolean rejected = false;
+            while (totalPackets < 0 || expectedSeqNum < totalPackets) {
+                if (selector.select(firstPacketAt < 0 ? REQUEST_RETRY_MS : RECEIVE_TIMEOUT_MS) == 0) {
+                    if (firstPacketAt < 0 && requestAttempts < MAX_REQUEST_ATTEMPTS) {
+                        requestAttempts++;
+                        sendRequest(request);
+                        continue;
+                    }
                     System.out.println("Timeout esperando paquete. Terminando recepción...");
                     break;
                 }
+                selector.selectedKeys().clear();
+
+                // Drena la ráfaga completa y responde con un solo ACK acumulativo
+                int batch = 0;
+                int result;
+                while (batch < MAX_BATCH && (result = readDatagram()) != 0) {
+                    if (result < 0) {
+                        rejected = true;
+                        break;
+                    }
+                    batch++;
+                }
+                if (rejected) {
+                    System.out.println("El servidor rechazó la solicitud (archivo inexistente o rango inválido): "
+                            + requestedFile);
+                    break;
+                }
+                if (batch == 0) continue;
+
+                // 🔊 Pasa al reproductor lo que ya está en orden (sin bloquear la recepción)
+                if (jitter != null) feedPlayer(false);
+
+                // Envía ACK acumulativo + rangos SACK de lo recibido fuera de orden
+                int[] sack = sackBlocks(received, expectedSeqNum, lastAccepted);
+                for (int i = 1; i < sack.length; i += 2) highestReported = Math.max(highestReported, sack[i]);
+                sendAck(new AckPacket(expectedSeqNum - 1, false, sack));
+            }
+            if (expectedSeqNum == totalPackets) {
+                completedAt = System.currentTimeMillis();
+                System.out.println("🎵 Último paquete recibido.");
+                Files.deleteIfExists(progressFile);
+                linger(selector);
+            } else {
+                saveProgress();
+                System.out.println("💾 Descarga incompleta; usa --resume para continuar desde el byte " + contiguousBytes);
             }
+            if (jitter != null) {
+                feedPlayer(true);
+                jitter.finish();
+            }
+        }
+        System.out.println("✅ Archivo reconstruido: " + outputFile);
+        long end = completedAt < 0 ? System.currentTimeMillis() : completedAt;
+        double seconds = firstPacketAt < 0 ? 0 : Math.max(1, end - firstPacketAt) / 1000.0;
+        System.out.printf("📊 Recibidos %d paquetes (%d duplicados o fuera de ventana), ACKs enviados: %d, "
+                        + "goodput %.1f KB/s en %.2f s%n", packetsReceived, duplicates, acksSent,
+                seconds == 0 ? 0 : (contiguousBytes - startOffset) / 1024.0 / seconds, seconds);
+        if (skipLost) {
+            System.out.println("📊 Paquetes saltados por el reproductor: " + skippedPackets);
+        }
+        if (fecGroup > 0) {
+            System.out.println("📊 FEC K=" + fecGroup + ": recuperados sin retransmisión: " + recoveredByFec
+                    + ", huecos rellenados por retransmisión: " + filledByRetransmission);
+        }
+    }
 
-            // 🧩 Reconstruir el archivo
-            saveToFile(receivedData, outputFile);
-            System.out.println("✅ Archivo reconstruido: " + outputFile);
+    // Lee un datagrama del buffer reutilizado: 1 = procesado, 0 = no había nada, -1 = solicitud rechazada
+    private int readDatagram() throws IOException {
+        recvBuffer.clear();
+        try {
+            if (channel.read(recvBuffer) <= 0) return 0;
+        } catch (PortUnreachableException e) {
+            return 0; // el servidor aún no escucha; la solicitud se reintenta
+        }
+        recvBuffer.flip();
+        try {
+            if (recvBuffer.get(0) == ParityPacket.TYPE) {
+                onParity(ParityPacket.readFrom(recvBuffer));
+                return 1;
+            }
+            Packet packet = Packet.readFrom(recvBuffer);
+            if (packet.isNotFound()) return -1;
+            onData(packet);
+        } catch (RuntimeException e) {
+            System.out.println("Datagrama inválido: " + e.getMessage());
+        }
+        return 1;
+    }
 
-             // 🔊 Reproducir MP3 con opción de pausar y reanudar
-            playAudioWithConsoleControl(outputFile);
+    private void onData(Packet packet) throws IOException {
+        totalPackets = packet.getTotalPackets();
+        if (firstPacketAt < 0) firstPacketAt = System.currentTimeMillis();
+        int seq = packet.getSequenceNumber();
+        packetsReceived++;
+        PacketTrace.record(PacketTrace.RECV, requestedFile, seq);
+        if (accept(seq, packet.getOffset(), packet.getData())) {
+            // Solo cuenta si un SACK anterior ya lo dejaba en un hueco que el servidor da por perdido
+            if (seq <= highestReported - TransferSession.DUP_THRESH) filledByRetransmission++;
+            if (fecGroup > 0) tryRecover(seq - seq % fecGroup);
+        } else {
+            duplicates++;
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private void onParity(ParityPacket parity) throws IOException {
+        int first = parity.getFirstSeq();
+        if (first + parity.getCount() <= expectedSeqNum) return;       // grupo ya completo
+        if (first >= expectedSeqNum + RECEIVE_WINDOW) return;          // fuera de la ventana
+        parities.put(first, parity);
+        tryRecover(first);
+    }
+
+    // ✅ Acepta cualquier paquete dentro de la ventana de recepción; devuelve false si sobra
+    private boolean accept(int seq, long offset, ByteBuffer data) throws IOException {
+        if (seq < expectedSeqNum || seq >= expectedSeqNum + RECEIVE_WINDOW || received.get(seq)) return false;
+        startOffsets[seq % OFFSET_RING] = offset;
+        endOffsets[seq % OFFSET_RING] = offset + data.remaining();
+        writeFully(out, data, offset);
+        received.set(seq);
+        lastAccepted = seq;
+        int previous = expectedSeqNum;
+        expectedSeqNum = received.nextClearBit(expectedSeqNum);
+        if (expectedSeqNum > previous) {
+            contiguousBytes = endOffsets[(expectedSeqNum - 1) % OFFSET_RING];
+            parities.keySet().removeIf(first -> first + fecGroup <= expectedSeqNum);
+            if (expectedSeqNum / PROGRESS_EVERY != previous / PROGRESS_EVERY) saveProgress();
+        }
+        return true;
+    }
+
+    // Avance persistido: "<archivo pedido>\n<último byte contiguo>"; sobrevive a un cierre inesperado
+    private void saveProgress() throws IOException {
+        Files.writeString(progressFile, requestedFile + "\n" + contiguousBytes + "\n");
+    }
+
+    private boolean loadProgress() throws IOException {
+        if (!Files.exists(progressFile)) return false;
+        List<String> lines = Files.readAllLines(progressFile);
+        if (lines.size() < 2 || !lines.get(0).equals(requestedFile)) return false;
+        startOffset = Long.parseLong(lines.get(1).trim());
+        System.out.println("💾 Reanudando " + requestedFile + " desde el byte " + startOffset);
+        return true;
+    }
+
+    // Si al grupo le falta exactamente un paquete y tenemos su paridad, lo reconstruye con XOR
+    private void tryRecover(int groupStart) throws IOException {
+        ParityPacket parity = parities.get(groupStart);
+        if (parity == null) return;
+        int end = groupStart + parity.getCount();
+        int missing = -1;
+        for (int seq = groupStart; seq < end; seq++) {
+            if (!received.get(seq)) {
+                if (missing >= 0) return; // faltan dos o más: XOR no alcanza
+                missing = seq;
+            }
+        }
+        parities.remove(groupStart);
+        if (missing < 0) return;
+
+        ByteBuffer acc = parity.getParity();
+        byte[] rebuilt = new byte[acc.remaining()];
+        acc.get(rebuilt);
+        int length = parity.getLengthXor();
+        long offset = parity.getOffsetXor();
+        ByteBuffer other = ByteBuffer.allocate(rebuilt.length);
+        for (int seq = groupStart; seq < end; seq++) {
+            if (seq == missing) continue;
+            long start = startOffsets[seq % OFFSET_RING];
+            int len = (int) (endOffsets[seq % OFFSET_RING] - start);
+            other.clear().limit(len);
+            while (other.hasRemaining() && out.read(other, start + other.position()) > 0) { }
+            for (int i = 0; i < len; i++) rebuilt[i] ^= other.get(i);
+            length ^= len;
+            offset ^= start;
+        }
+        if (length < 0 || length > rebuilt.length) return; // paridad inconsistente
+        if (accept(missing, offset, ByteBuffer.wrap(rebuilt, 0, length))) {
+            recoveredByFec++;
+            PacketTrace.record(PacketTrace.FEC, requestedFile, missing);
+        }
+    }
+
+    // Con skipLost el reproductor no espera un paquete perdido si el buffer se vacía: salta al siguiente
+    // recibido (con paquetes alineados a frames el decodificador sigue limpio) y el ARQ repara el archivo en disco
+    private void feedPlayer(boolean block) throws IOException {
+        while (true) {
+            long playable = playableEnd();
+            deliveredBytes = feedPlayer(out, jitter, feedBuffer, deliveredBytes, playable, block);
+            if (!skipLost || deliveredBytes < playable || !skipHole(block)) return;
+        }
+    }
+
+    // Fin del tramo recibido sin huecos que empieza en playSeq
+    private long playableEnd() {
+        if (playSeq <= expectedSeqNum) return contiguousBytes;
+        int runEnd = received.nextClearBit(playSeq) - 1;
+        return endOffsets[runEnd % OFFSET_RING];
+    }
+
+    // Salta el hueco que frena al reproductor si lleva demasiado (o si la descarga ya terminó)
+    private boolean skipHole(boolean force) {
+        int hole = playSeq <= expectedSeqNum ? expectedSeqNum : received.nextClearBit(playSeq);
+        int next = received.nextSetBit(hole);
+        if (next < 0) return false; // no llegó nada después del hueco
+        if (!force) {
+            long now = System.currentTimeMillis();
+            if (jitter.buffered() > SKIP_LOW_WATER) {
+                holeSince = -1;
+                return false;
+            }
+            if (holeSince < 0 || holeSeq != hole) {
+                holeSeq = hole;
+                holeSince = now;
+                return false;
+            }
+            if (now - holeSince < SKIP_AFTER_MS) return false;
+        }
+        skippedPackets += next - hole;
+        playSeq = next;
+        deliveredBytes = startOffsets[next % OFFSET_RING];
+        holeSince = -1;
+        return true;
+    }
+
+    private void sendRequest(RequestPacket request) throws IOException {
+        sendBuffer.clear();
+        request.writeTo(sendBuffer);
+        sendBuffer.flip();
+        try {
+            channel.write(sendBuffer);
+        } catch (PortUnreachableException e) {
+            // el servidor todavía no está arriba: se reintenta por timeout
         }
     }
 
+    // Tras el último paquete, sigue confirmando duplicados un momento: si el ACK final se perdió,
+    // el servidor retransmite y de otro modo esperaría varios timeouts para cerrar la sesión
+    private void linger(Selector selector) throws IOException {
+        while (selector.select(LINGER_MS) > 0) {
+            selector.selectedKeys().clear();
+            int drained = 0;
+            try {
+                while (channel.read(recvBuffer.clear()) > 0) drained++;
+            } catch (PortUnreachableException e) {
+                return; // el servidor ya no escucha
+            }
+            if (drained > 0) sendAck(new AckPacket(totalPackets - 1, false));
+        }
+        // silencio: el servidor ya cerró la sesión
+    }
+
     // Envía ACK/NACK al servidor
-    private static void sendAck(DatagramSocket socket, InetAddress serverAddr, int serverPort, AckPacket ack)
-            throws IOException {
-        byte[] ackData = serialize(ack);
-        DatagramPacket ackPacket = new DatagramPacket(ackData, ackData.length, serverAddr, serverPort);
-        socket.send(ackPacket);
-        if (!ack.isNack())
-            System.out.println("📤 Enviado ACK #" + ack.getAckNumber());
-        else
-            System.out.println("📤 Enviado NACK #" + ack.getAckNumber());
-    }
-
-    // Guarda los fragmentos recibidos en un solo archivo
-    private static void saveToFile(Map<Integer, byte[]> fragments, String outputFile) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-            for (int i = 0; i < fragments.size(); i++) {
-                fos.write(fragments.get(i));
+    private void sendAck(AckPacket ack) throws IOException {
+        sendBuffer.clear();
+        ack.writeTo(sendBuffer);
+        sendBuffer.flip();
+        try {
+            channel.write(sendBuffer);
+        } catch (PortUnreachableException e) {
+            return;
+        }
+        acksSent++;
+        PacketTrace.record(ack.isNack() ? PacketTrace.NACK_SENT : PacketTrace.ACK_SENT, requestedFile, ack.getAckNumber());
+    }
+
+    // Agrupa los paquetes recibidos por encima del esperado en rangos [inicio, fin]. Como en RFC 2018, el primero
+    // contiene el paquete más reciente y el resto va de arriba hacia abajo: así el servidor ve lo último que llegó
+    // (y detecta pérdidas por encima de él); los bloques bajos ya se informaron cuando eran los más recientes
+    private static int[] sackBlocks(BitSet received, int expectedSeqNum, int recent) {
+        int[] blocks = new int[AckPacket.MAX_SACK_BLOCKS * 2];
+        int count = 0;
+        int recentStart = -1;
+        if (recent > expectedSeqNum && received.get(recent)) {
+            recentStart = received.previousClearBit(recent) + 1;
+            blocks[count++] = recentStart;
+            blocks[count++] = received.nextClearBit(recent) - 1;
+        }
+        int end = received.length() - 1;
+        while (end > expectedSeqNum && count < blocks.length) {
+            int start = received.previousClearBit(end) + 1;
+            if (start != recentStart) {
+                blocks[count++] = start;
+                blocks[count++] = end;
             }
+            end = received.previousSetBit(start - 1);
+        }
+        return Arrays.copyOf(blocks, count);
+    }
+
+    // Reproductor en su propio hilo que decodifica directamente desde el jitter buffer
+    private static Thread startStreamingPlayer(JitterBuffer jitter, boolean nullAudio) throws Exception {
+        AudioDevice device = nullAudio ? new NullAudioDevice()
+                : FactoryRegistry.systemRegistry().createAudioDevice();
+        Thread playThread = new Thread(() -> {
+            try {
+                // El constructor ya lee del stream (etiqueta ID3), por eso se crea dentro del hilo
+                Player player = new Player(jitter, device);
+                player.play();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                jitter.close(); // si el reproductor cae, la descarga no debe quedarse esperando espacio
+            }
+        }, "streaming-player");
+        playThread.start();
+        System.out.println("🎶 Modo streaming: la reproducción inicia tras el prebuffer.");
+        return playThread;
+    }
+
+    // Copia del disco al jitter buffer los bytes en orden [delivered, contiguous); con block=false solo lo que quepa
+    private static long feedPlayer(FileChannel file, JitterBuffer jitter, ByteBuffer scratch,
+                                   long delivered, long contiguous, boolean block) throws IOException {
+        while (delivered < contiguous) {
+            if (block) jitter.awaitSpace();
+            int space = jitter.freeSpace();
+            if (space == 0) break;
+            scratch.clear();
+            scratch.limit((int) Math.min(Math.min(scratch.capacity(), space), contiguous - delivered));
+            int n = file.read(scratch, delivered);
+            if (n <= 0) break;
+            scratch.flip();
+            delivered += jitter.offer(scratch);
+        }
+        return delivered;
+    }
+
+    // Escritura posicional: no mueve la posición del canal, así el orden de llegada no importa
+    private static void writeFully(FileChannel out, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += out.write(data, position);
         }
     }
 
@@ -156,20 +599,4 @@ public class Client {
             e.printStackTrace();
         }
     }
-
-
-    // Serialización / deserialización de objetos
-    private static byte[] serialize(Object obj) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        oos.writeObject(obj);
-        oos.flush();
-        return bos.toByteArray();
-    }
-
-    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(data);
-        ObjectInputStream ois = new ObjectInputStream(bis);
-        return ois.readObject();
-    }
 }
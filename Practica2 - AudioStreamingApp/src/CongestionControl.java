@@ -0,0 +1,57 @@
+//Control de congestión estilo TCP Reno: arranque lento + AIMD, medido en paquetes.
+package com.example.network;
+
+public class CongestionControl {
+    private static final double INITIAL_WINDOW = 2;
+    private static final double MIN_SSTHRESH = 2;
+
+    private final int maxWindow;     // tope impuesto por el buffer del receptor
+    private double cwnd = INITIAL_WINDOW;
+    private double ssthresh;
+    private double peakWindow = INITIAL_WINDOW;
+    private int lossEvents = 0;
+    private int timeouts = 0;
+
+    public CongestionControl(int maxWindow) {
+        this.maxWindow = maxWindow;
+        this.ssthresh = maxWindow;
+    }
+
+    // Ventana utilizable (paquetes en vuelo permitidos)
+    public int window() {
+        return (int) Math.max(1, Math.min(maxWindow, Math.floor(cwnd)));
+    }
+
+    // Se llama por cada paquete nuevo confirmado (ACK acumulativo o SACK)
+    public void onAck(int newlyAcked) {
+        for (int i = 0; i < newlyAcked; i++) {
+            if (cwnd < ssthresh) {
+                cwnd += 1;          // arranque lento: +1 por ACK → se duplica por RTT
+            } else {
+                cwnd += 1 / cwnd;   // evitación de congestión: +1 por RTT
+            }
+        }
+        cwnd = Math.min(cwnd, maxWindow);
+        peakWindow = Math.max(peakWindow, cwnd);
+    }
+
+    // Pérdida detectada por SACK/NACK: decremento multiplicativo (recuperación rápida)
+    public void onLoss() {
+        ssthresh = Math.max(cwnd / 2, MIN_SSTHRESH);
+        cwnd = ssthresh;
+        lossEvents++;
+    }
+
+    // Timeout: la red no responde → volver a arranque lento
+    public void onTimeout() {
+        ssthresh = Math.max(cwnd / 2, MIN_SSTHRESH);
+        cwnd = 1;
+        timeouts++;
+    }
+
+    public double getCwnd() { return cwnd; }
+    public double getSsthresh() { return ssthresh; }
+    public double getPeakWindow() { return peakWindow; }
+    public int getLossEvents() { return lossEvents; }
+    public int getTimeouts() { return timeouts; }
+}
@@ -0,0 +1,39 @@
+//Histograma con buckets log2 sobre contadores primitivos: registrar un valor no asigna memoria.
+//El bucket i cuenta los valores en [2^i, 2^(i+1)); los percentiles son aproximados al borde del bucket.
+package com.example.network;
+
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[63 - Long.numberOfLeadingZeros(value | 1)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public long getCount() { return count; }
+    public long getMin() { return count == 0 ? 0 : min; }
+    public long getMax() { return max; }
+    public double getMean() { return count == 0 ? 0 : (double) sum / count; }
+
+    // Borde superior del bucket que contiene el percentil p (0..100), acotado por el máximo visto
+    public long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(p / 100.0 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, (2L << i) - 1);
+        }
+        return max;
+    }
+}
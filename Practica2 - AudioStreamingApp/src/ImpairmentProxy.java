@@ -0,0 +1,228 @@
+//Proxy UDP que emula una red mala entre Client y Server: pérdida, retardo, jitter, reordenamiento y duplicación.
+//Cada cliente que llega al puerto de escucha obtiene su propio canal hacia el servidor; las fallas se aplican
+//en ambos sentidos (también se pierden ACKs y solicitudes).
+//Uso: ImpairmentProxy <puerto de escucha> <host:puerto del servidor> [--loss=<0..1>] [--delay=<ms>]
+//                     [--jitter=<ms>] [--reorder=<0..1>] [--dup=<0..1>]
+package com.example.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+public class ImpairmentProxy implements AutoCloseable {
+    private static final int REORDER_EXTRA_MS = 15;   // un paquete reordenado llega este tiempo después de lo normal
+
+    // Condiciones de la red emulada (iguales en ambos sentidos)
+    public static final class Impairment {
+        final double loss;
+        final int delayMs;
+        final int jitterMs;
+        final double reorder;
+        final double duplicate;
+
+        public Impairment(double loss, int delayMs, int jitterMs, double reorder, double duplicate) {
+            this.loss = loss;
+            this.delayMs = delayMs;
+            this.jitterMs = jitterMs;
+            this.reorder = reorder;
+            this.duplicate = duplicate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pérdida %.0f%%, retardo %d±%d ms, reorden %.0f%%, dup %.0f%%",
+                    loss * 100, delayMs, jitterMs, reorder * 100, duplicate * 100);
+        }
+    }
+
+    // Datagrama retenido hasta su hora de entrega
+    private static final class Pending implements Comparable<Pending> {
+        final long deliverAt;
+        final long order;   // desempate: a igual hora se respeta el orden de llegada
+        final DatagramChannel via;
+        final SocketAddress to;
+        final ByteBuffer data;
+
+        Pending(long deliverAt, long order, DatagramChannel via, SocketAddress to, ByteBuffer data) {
+            this.deliverAt = deliverAt;
+            this.order = order;
+            this.via = via;
+            this.to = to;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Pending o) {
+            return deliverAt != o.deliverAt ? Long.compare(deliverAt, o.deliverAt) : Long.compare(order, o.order);
+        }
+    }
+
+    private final DatagramChannel listen;
+    private final InetSocketAddress server;
+    private final Impairment impairment;
+    private final Selector selector;
+    private final Random random;
+    private final Map<SocketAddress, DatagramChannel> upstream = new HashMap<>();   // cliente → canal al servidor
+    private final Map<DatagramChannel, SocketAddress> downstream = new HashMap<>(); // canal al servidor → cliente
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>();
+    private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(65507);
+    private long arrivals = 0;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    // Contadores (los lee el benchmark al terminar)
+    private volatile long forwarded, dropped, duplicated, reordered, dataFromServer;
+
+    public ImpairmentProxy(int listenPort, InetSocketAddress server, Impairment impairment, long seed)
+            throws IOException {
+        this.server = server;
+        this.impairment = impairment;
+        this.random = new Random(seed);
+        this.listen = DatagramChannel.open();
+        this.listen.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), listenPort));
+        this.listen.configureBlocking(false);
+        this.selector = Selector.open();
+        this.listen.register(selector, SelectionKey.OP_READ);
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) listen.getLocalAddress()).getPort();
+    }
+
+    public long getForwarded() { return forwarded; }
+    public long getDropped() { return dropped; }
+    public long getDuplicated() { return duplicated; }
+    public long getReordered() { return reordered; }
+    public long getDataFromServer() { return dataFromServer; } // paquetes de datos emitidos por el servidor
+
+    public ImpairmentProxy start() {
+        thread = new Thread(() -> {
+            try {
+                loop();
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }, "impairment-proxy");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    private void loop() throws IOException {
+        while (running) {
+            long now = System.currentTimeMillis();
+            Pending next = pending.peek();
+            long wait = next == null ? 50 : Math.max(1, next.deliverAt - now);
+            selector.select(Math.min(wait, 50));
+            for (SelectionKey k : selector.selectedKeys()) {
+                DatagramChannel channel = (DatagramChannel) k.channel();
+                SocketAddress from;
+                while ((from = receive(channel)) != null) {
+                    if (channel == listen) {
+                        impair(upstreamFor(from), server, false);
+                    } else {
+                        impair(listen, downstream.get(channel), true);
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+
+            now = System.currentTimeMillis();
+            while (!pending.isEmpty() && pending.peek().deliverAt <= now) {
+                Pending p = pending.poll();
+                p.via.send(p.data, p.to);
+                forwarded++;
+            }
+        }
+    }
+
+    private SocketAddress receive(DatagramChannel channel) throws IOException {
+        recvBuffer.clear();
+        SocketAddress from = channel.receive(recvBuffer);
+        recvBuffer.flip();
+        return from;
+    }
+
+    private DatagramChannel upstreamFor(SocketAddress client) throws IOException {
+        DatagramChannel channel = upstream.get(client);
+        if (channel == null) {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            upstream.put(client, channel);
+            downstream.put(channel, client);
+        }
+        return channel;
+    }
+
+    private void impair(DatagramChannel via, SocketAddress to, boolean fromServer) {
+        if (fromServer && recvBuffer.remaining() > 0 && recvBuffer.get(0) == Packet.TYPE) dataFromServer++;
+        if (random.nextDouble() < impairment.loss) {
+            dropped++;
+            return;
+        }
+        int copies = random.nextDouble() < impairment.duplicate ? 2 : 1;
+        if (copies == 2) duplicated++;
+        for (int i = 0; i < copies; i++) {
+            long delay = impairment.delayMs;
+            if (impairment.jitterMs > 0) delay += random.nextInt(2 * impairment.jitterMs + 1) - impairment.jitterMs;
+            if (random.nextDouble() < impairment.reorder) {
+                delay += REORDER_EXTRA_MS;
+                reordered++;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(recvBuffer.remaining());
+            copy.put(recvBuffer.duplicate()).flip();
+            pending.add(new Pending(System.currentTimeMillis() + Math.max(0, delay), arrivals++, via, to, copy));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (DatagramChannel channel : upstream.values()) channel.close();
+        listen.close();
+        selector.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Uso: ImpairmentProxy <puerto> <host:puerto> [--loss=] [--delay=] [--jitter=] [--reorder=] [--dup=]");
+            return;
+        }
+        double loss = 0, reorder = 0, dup = 0;
+        int delay = 0, jitter = 0;
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--loss=")) loss = Double.parseDouble(arg.substring(7));
+            else if (arg.startsWith("--delay=")) delay = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("--jitter=")) jitter = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--reorder=")) reorder = Double.parseDouble(arg.substring(10));
+            else if (arg.startsWith("--dup=")) dup = Double.parseDouble(arg.substring(6));
+        }
+        String[] hp = args[1].split(":", 2);
+        InetSocketAddress server = new InetSocketAddress(InetAddress.getByName(hp[0]), Integer.parseInt(hp[1]));
+        Impairment impairment = new Impairment(loss, delay, jitter, reorder, dup);
+        ImpairmentProxy proxy = new ImpairmentProxy(Integer.parseInt(args[0]), server, impairment,
+                System.nanoTime()).start();
+        System.out.println("🌧️ Proxy en puerto " + proxy.getPort() + " → " + server + " (" + impairment + ")");
+        proxy.thread.join();
+    }
+}
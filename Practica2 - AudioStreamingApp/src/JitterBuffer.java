@@ -0,0 +1,117 @@
+//Buffer circular acotado entre la recepción y el decodificador MP3 (modo streaming).
+//El receptor lo llena sin bloquearse; el reproductor lee y espera el prebuffer al inicio y tras cada vacío.
+package com.example.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+public class JitterBuffer extends InputStream {
+    private final byte[] ring;
+    private final int prebuffer;      // bytes que deben acumularse antes de (re)iniciar la reproducción
+    private int readPos = 0;
+    private int count = 0;
+    private boolean buffering = true;
+    private boolean finished = false;
+    private boolean closed = false;   // el reproductor terminó o cayó: nadie más va a leer
+
+    private int underruns = 0;
+    private long stallMillis = 0;
+    private long firstAudioAt = -1;
+
+    public JitterBuffer(int capacity, int prebuffer) {
+        this.ring = new byte[capacity];
+        this.prebuffer = Math.min(prebuffer, capacity);
+    }
+
+    public synchronized int freeSpace() { return closed ? 0 : ring.length - count; }
+    public synchronized int buffered() { return count; }
+
+    // Copia lo que quepa de src sin bloquear; devuelve cuántos bytes se aceptaron
+    public synchronized int offer(ByteBuffer src) {
+        if (closed) return 0;
+        int n = Math.min(src.remaining(), ring.length - count);
+        int writePos = (readPos + count) % ring.length;
+        int first = Math.min(n, ring.length - writePos);
+        src.get(ring, writePos, first);
+        src.get(ring, 0, n - first);
+        count += n;
+        if (n > 0) notifyAll();
+        return n;
+    }
+
+    // Espera a que haya espacio (solo para vaciar la cola al terminar la descarga); vuelve si se cerró
+    public synchronized void awaitSpace() throws InterruptedIOException {
+        try {
+            while (count == ring.length && !closed) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Ya no llegarán más bytes: el lector recibe EOF al vaciar el buffer
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    // Lo llama el hilo del reproductor al salir (bien o por error): libera a quien espera espacio
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        waitForData();
+        if (count == 0 || closed) return -1;
+        int n = Math.min(len, count);
+        int first = Math.min(n, ring.length - readPos);
+        System.arraycopy(ring, readPos, b, off, first);
+        System.arraycopy(ring, 0, b, off + first, n - first);
+        readPos = (readPos + n) % ring.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    @Override
+    public synchronized int available() { return buffering ? 0 : count; }
+
+    private void waitForData() throws InterruptedIOException {
+        if (count == 0 && !finished && !buffering) {
+            underruns++;
+            buffering = true;
+            System.out.println("⚠️ Buffer vacío (#" + underruns + "), re-almacenando...");
+        }
+        if (!buffering) return;
+        long waitStart = System.currentTimeMillis();
+        try {
+            while (!finished && !closed && count < prebuffer) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        long now = System.currentTimeMillis();
+        if (firstAudioAt < 0) {
+            firstAudioAt = now;
+        } else {
+            stallMillis += now - waitStart;
+        }
+        buffering = false;
+    }
+
+    public synchronized int getUnderruns() { return underruns; }
+    public synchronized long getStallMillis() { return stallMillis; }
+    public synchronized long getFirstAudioAt() { return firstAudioAt; }
+}
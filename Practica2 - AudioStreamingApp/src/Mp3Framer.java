@@ -0,0 +1,107 @@
+//Empaquetado alineado a frames MP3: recorre las cabeceras de frame y decide dónde empieza cada paquete para
+//que cada datagrama lleve frames completos. Si se pierde uno, el decodificador vuelve a sincronizar en el
+//siguiente sin que los frames vecinos queden cortados. Las etiquetas (ID3) y bytes basura se cortan a tamaño fijo.
+package com.example.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public final class Mp3Framer {
+    // kbps por [versión MPEG1=0 / MPEG2 y 2.5=1][capa I=0, II=1, III=2][índice]
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+            },
+    };
+    // Hz por [versión: 0 = MPEG2.5, 2 = MPEG2, 3 = MPEG1][índice]
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000}, null, {22050, 24000, 16000}, {44100, 48000, 32000},
+    };
+
+    private Mp3Framer() { }
+
+    // Inicio (byte absoluto) de cada paquete; cada uno lleva frames completos hasta maxPayload bytes
+    public static int[] packetize(ByteBuffer file, int maxPayload) {
+        int limit = file.limit();
+        int[] starts = new int[Math.max(16, limit / maxPayload + 1)];
+        int count = 0;
+        starts[count++] = 0;
+        int packetStart = 0;
+        int id3End = id3Length(file);
+        int unitStart = 0;
+        while (unitStart < limit) {
+            // Unidad indivisible: un frame, la etiqueta ID3 o la basura hasta la siguiente cabecera válida
+            int next;
+            if (unitStart < id3End) {
+                next = id3End;
+            } else {
+                int len = frameAt(file, unitStart);
+                next = len > 0 ? Math.min(limit, unitStart + len) : resync(file, unitStart + 1);
+            }
+
+            if (next - packetStart > maxPayload) {
+                if (unitStart > packetStart) {
+                    if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                    starts[count++] = packetStart = unitStart;
+                }
+                while (next - packetStart > maxPayload) { // unidad más grande que un paquete: se corta
+                    if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                    starts[count++] = packetStart += maxPayload;
+                }
+            }
+            unitStart = next;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    // Longitud del frame que empieza en pos, o -1 si no hay una cabecera válida seguida de otra (o del final)
+    private static int frameAt(ByteBuffer file, int pos) {
+        int len = frameLength(file, pos);
+        if (len <= 0) return -1;
+        int next = pos + len;
+        if (next >= file.limit() - 4) return len; // último frame (puede venir truncado)
+        return frameLength(file, next) > 0 ? len : -1;
+    }
+
+    private static int resync(ByteBuffer file, int from) {
+        for (int pos = from; pos < file.limit() - 4; pos++) {
+            if ((file.get(pos) & 0xFF) == 0xFF && frameAt(file, pos) > 0) return pos;
+        }
+        return file.limit();
+    }
+
+    // Cabecera MPEG audio de 4 bytes → longitud del frame en bytes, o -1 si no es válida
+    static int frameLength(ByteBuffer file, int pos) {
+        if (pos + 4 > file.limit()) return -1;
+        int header = file.getInt(pos);
+        if ((header & 0xFFE00000) != 0xFFE00000) return -1;
+        int version = (header >>> 19) & 3;      // 0 = 2.5, 1 = reservada, 2 = MPEG2, 3 = MPEG1
+        int layer = 4 - ((header >>> 17) & 3);  // 4 = reservada
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int rateIndex = (header >>> 10) & 3;
+        int padding = (header >>> 9) & 1;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) return -1;
+
+        int bitrate = BITRATES[version == 3 ? 0 : 1][layer - 1][bitrateIndex] * 1000;
+        int sampleRate = SAMPLE_RATES[version][rateIndex];
+        if (layer == 1) return (12 * bitrate / sampleRate + padding) * 4;
+        if (layer == 3 && version != 3) return 72 * bitrate / sampleRate + padding;
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    // Tamaño de la etiqueta ID3v2 al inicio (cabecera + cuerpo + pie opcional), 0 si no hay
+    private static int id3Length(ByteBuffer file) {
+        if (file.limit() < 10 || file.get(0) != 'I' || file.get(1) != 'D' || file.get(2) != '3') return 0;
+        int size = (file.get(6) & 0x7F) << 21 | (file.get(7) & 0x7F) << 14
+                | (file.get(8) & 0x7F) << 7 | (file.get(9) & 0x7F);
+        boolean footer = (file.get(5) & 0x10) != 0;
+        return Math.min(file.limit(), 10 + size + (footer ? 10 : 0));
+    }
+}
@@ -0,0 +1,193 @@
+//Receptor del modo multicast. Ante un hueco espera un retardo aleatorio antes de mandar su NACK al grupo;
+//si en ese tiempo escucha el NACK de otro receptor por los mismos paquetes, suprime el suyo.
+//Uso: MulticastReceiver [--group=230.0.0.5] [--port=7000] [--iface=<nombre>] [--out=<archivo>]
+//                       [--drop=<probabilidad de pérdida simulada, para pruebas en loopback>]
+package com.example.network;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class MulticastReceiver {
+    private static final int NACK_DELAY_MIN_MS = 5;
+    private static final int NACK_DELAY_SPREAD_MS = 40;  // retardo aleatorio en [5, 45) ms
+    private static final int REPAIR_WAIT_MS = 150;       // tras un NACK (propio o ajeno) se espera la reparación
+    private static final int SILENCE_MS = 300;           // sin datos este tiempo → lo que falta al final se pide
+    private static final int GIVE_UP_MS = 15000;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final InetSocketAddress group;
+    private final String outputFile;
+    private final double dropRate;
+    private final int id = ThreadLocalRandom.current().nextInt();
+
+    private final BitSet received = new BitSet();
+    private long[] coveredUntil;     // hasta cuándo un paquete ya está pedido (por nosotros o por otro)
+    private int totalPackets = -1;
+    private int highest = -1;
+    private long nackAt = -1;
+    private long lastDataAt;
+
+    private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(65507);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(NackPacket.MAX_SIZE);
+    private int nacksSent = 0, nacksOverheard = 0, suppressed = 0, repairs = 0, simulatedDrops = 0;
+
+    public MulticastReceiver(InetSocketAddress group, NetworkInterface iface, String outputFile, double dropRate)
+            throws IOException {
+        this.group = group;
+        this.outputFile = outputFile;
+        this.dropRate = dropRate;
+        this.channel = MulticastServer.openGroupChannel(group.getAddress(), group.getPort(), iface);
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    // Devuelve true si el archivo llegó completo
+    public boolean run() throws IOException {
+        System.out.println("🎧 Escuchando " + group + " (receptor " + Integer.toHexString(id) + ")");
+        long start = System.currentTimeMillis();
+        lastDataAt = start;
+        try (FileChannel out = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (!isComplete()) {
+                long now = System.currentTimeMillis();
+                long wait = nackAt >= 0 ? Math.max(1, nackAt - now) : 50;
+                selector.select(Math.min(wait, 50));
+                selector.selectedKeys().clear();
+                while (channel.receive(recvBuffer.clear()) != null) {
+                    recvBuffer.flip();
+                    try {
+                        byte type = recvBuffer.get(0);
+                        if (type == Packet.TYPE) onData(out, Packet.readFrom(recvBuffer));
+                        else if (type == NackPacket.TYPE) onNack(NackPacket.readFrom(recvBuffer));
+                    } catch (RuntimeException e) {
+                        System.out.println("Datagrama inválido: " + e.getMessage());
+                    }
+                }
+
+                now = System.currentTimeMillis();
+                if (totalPackets >= 0 && !isComplete() && now - lastDataAt > SILENCE_MS) armNack(now);
+                if (nackAt >= 0 && now >= nackAt) fireNack(now);
+                if (now - lastDataAt > GIVE_UP_MS) {
+                    System.out.println("Sin datos del grupo; terminando.");
+                    break;
+                }
+            }
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.printf("📊 %s: %s en %.2f s; NACKs enviados: %d, escuchados de otros: %d, "
+                        + "paquetes suprimidos: %d, reparaciones útiles: %d, pérdidas simuladas: %d%n",
+                outputFile, isComplete() ? "completo" : "INCOMPLETO", seconds, nacksSent, nacksOverheard,
+                suppressed, repairs, simulatedDrops);
+        return isComplete();
+    }
+
+    private boolean isComplete() {
+        return totalPackets >= 0 && received.nextClearBit(0) >= totalPackets;
+    }
+
+    private void onData(FileChannel out, Packet packet) throws IOException {
+        if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+            simulatedDrops++;
+            return;
+        }
+        int seq = packet.getSequenceNumber();
+        if (totalPackets < 0) {
+            totalPackets = packet.getTotalPackets();
+            coveredUntil = new long[totalPackets];
+        }
+        lastDataAt = System.currentTimeMillis();
+        if (seq < 0 || seq >= totalPackets || received.get(seq)) return;
+        if (seq < highest) repairs++;
+        ByteBuffer data = packet.getData();
+        long position = packet.getOffset();
+        while (data.hasRemaining()) position += out.write(data, position);
+        received.set(seq);
+        highest = Math.max(highest, seq);
+        if (received.nextClearBit(0) < highest) armNack(lastDataAt);
+    }
+
+    // NACK de otro receptor: lo que también nos falta queda cubierto por un rato
+    private void onNack(NackPacket nack) {
+        if (nack.getSenderId() == id || totalPackets < 0) return; // el propio vuelve por loopback
+        nacksOverheard++;
+        long until = System.currentTimeMillis() + REPAIR_WAIT_MS;
+        for (int i = 0; i < nack.getRangeCount(); i++) {
+            int to = Math.min(nack.getEnd(i), totalPackets - 1);
+            for (int seq = Math.max(0, nack.getStart(i)); seq <= to; seq++) {
+                if (!received.get(seq) && coveredUntil[seq] < until) {
+                    if (coveredUntil[seq] == 0) suppressed++;
+                    coveredUntil[seq] = until;
+                }
+            }
+        }
+    }
+
+    private void armNack(long now) {
+        if (nackAt < 0) {
+            nackAt = now + NACK_DELAY_MIN_MS + ThreadLocalRandom.current().nextInt(NACK_DELAY_SPREAD_MS);
+        }
+    }
+
+    private void fireNack(long now) throws IOException {
+        nackAt = -1;
+        // Durante el flujo solo se piden huecos; tras el silencio también la cola que no llegó
+        int limit = now - lastDataAt > SILENCE_MS ? totalPackets : highest;
+        int[] ranges = new int[NackPacket.MAX_RANGES * 2];
+        int count = 0;
+        int seq = received.nextClearBit(0);
+        while (seq < limit && count < ranges.length) {
+            if (coveredUntil[seq] > now) {
+                seq = received.nextClearBit(seq + 1);
+                continue;
+            }
+            int end = seq;
+            while (end + 1 < limit && !received.get(end + 1) && coveredUntil[end + 1] <= now) end++;
+            ranges[count++] = seq;
+            ranges[count++] = end;
+            seq = received.nextClearBit(end + 1);
+        }
+        if (count > 0) {
+            NackPacket nack = new NackPacket(id, Arrays.copyOf(ranges, count));
+            sendBuffer.clear();
+            nack.writeTo(sendBuffer);
+            sendBuffer.flip();
+            channel.send(sendBuffer, group);
+            nacksSent++;
+            long until = now + REPAIR_WAIT_MS;
+            for (int i = 0; i < count; i += 2) {
+                for (int s = ranges[i]; s <= ranges[i + 1]; s++) coveredUntil[s] = until;
+            }
+        }
+        // Si algo sigue faltando se vuelve a revisar cuando venza la espera de reparación
+        if (received.nextClearBit(0) < limit) {
+            nackAt = now + REPAIR_WAIT_MS + ThreadLocalRandom.current().nextInt(NACK_DELAY_SPREAD_MS);
+        }
+    }
+
+    public static void main(String[] args) {
+        String iface = null, groupAddr = MulticastServer.DEFAULT_GROUP, out = "received_multicast.mp3";
+        int port = MulticastServer.DEFAULT_PORT;
+        double drop = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--group=")) groupAddr = arg.substring(8);
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("--iface=")) iface = arg.substring(8);
+            else if (arg.startsWith("--out=")) out = arg.substring(6);
+            else if (arg.startsWith("--drop=")) drop = Double.parseDouble(arg.substring(7));
+        }
+        try {
+            InetSocketAddress group = new InetSocketAddress(InetAddress.getByName(groupAddr), port);
+            new MulticastReceiver(group, MulticastServer.pickInterface(iface), out, drop).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+//Distribución multicast uno-a-muchos: cada paquete se envía una sola vez al grupo y los huecos se reparan
+//por NACK (también multicast), así lo que sale del servidor crece con los paquetes perdidos, no con los oyentes.
+//Uso: MulticastServer <archivo> [--group=230.0.0.5] [--port=7000] [--iface=<nombre>] [--rate=<paquetes/s>]
+//                     [--payload=<B>] [--idle=<ms sin NACKs para terminar>]
+package com.example.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Enumeration;
+
+public class MulticastServer {
+    static final String DEFAULT_GROUP = "230.0.0.5";
+    static final int DEFAULT_PORT = 7000;
+    private static final int DEFAULT_RATE = 2000;        // paquetes/s: sin control de congestión, se dosifica
+    private static final int DEFAULT_IDLE_MS = 3000;
+    private static final int REPAIR_HOLDOFF_MS = 50;     // NACKs repetidos por una reparación ya enviada se ignoran
+    private static final int MAX_BURST = 32;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final InetSocketAddress group;
+    private final MappedByteBuffer fileData;
+    private final int packetSize;
+    private final int totalPackets;
+    private final int rate;
+    private final int idleMs;
+
+    private final BitSet repairQueue = new BitSet();
+    private final long[] lastRepairAt;
+    private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(NackPacket.MAX_SIZE + 65507);
+    private final ByteBuffer sendBuffer;
+    private int nextSeq = 0;
+    private long lastActivity = System.currentTimeMillis();
+
+    private int dataSent = 0, repairsSent = 0, nacksReceived = 0, duplicateRequests = 0;
+
+    public MulticastServer(File file, InetSocketAddress group, NetworkInterface iface, int packetSize,
+                           int rate, int idleMs) throws IOException {
+        this.group = group;
+        this.packetSize = packetSize;
+        this.rate = rate;
+        this.idleMs = idleMs;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.fileData = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        this.totalPackets = (int) Math.ceil((double) fileData.capacity() / packetSize);
+        this.lastRepairAt = new long[totalPackets];
+        this.sendBuffer = ByteBuffer.allocateDirect(Packet.HEADER_SIZE + packetSize);
+        // El servidor también es miembro del grupo para escuchar los NACKs
+        this.channel = openGroupChannel(group.getAddress(), group.getPort(), iface);
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public void run() throws IOException {
+        System.out.println("📡 Enviando " + totalPackets + " paquetes a " + group + " a " + rate + " paquetes/s");
+        long start = System.currentTimeMillis();
+        double tokens = 0;
+        long lastRefill = System.nanoTime();
+        while (true) {
+            selector.select(1);
+            selector.selectedKeys().clear();
+            SocketAddress from;
+            while ((from = receive()) != null) {
+                if (recvBuffer.remaining() > 0 && recvBuffer.get(0) == NackPacket.TYPE) {
+                    try {
+                        onNack(NackPacket.readFrom(recvBuffer));
+                    } catch (RuntimeException e) {
+                        System.out.println("NACK inválido de " + from + ": " + e.getMessage());
+                    }
+                }
+                // los datos propios que vuelven por IP_MULTICAST_LOOP se ignoran
+            }
+
+            // Cubeta de fichas: las reparaciones tienen prioridad sobre los datos nuevos
+            long now = System.nanoTime();
+            tokens = Math.min(MAX_BURST, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+            while (tokens >= 1) {
+                int seq = repairQueue.nextSetBit(0);
+                if (seq >= 0) {
+                    repairQueue.clear(seq);
+                    send(seq);
+                    lastRepairAt[seq] = System.currentTimeMillis();
+                    repairsSent++;
+                } else if (nextSeq < totalPackets) {
+                    send(nextSeq++);
+                    dataSent++;
+                    lastActivity = System.currentTimeMillis();
+                } else {
+                    break;
+                }
+                tokens--;
+            }
+
+            if (nextSeq == totalPackets && repairQueue.isEmpty()
+                    && System.currentTimeMillis() - lastActivity > idleMs) {
+                break;
+            }
+        }
+        double seconds = (System.currentTimeMillis() - start - idleMs) / 1000.0;
+        System.out.printf("📊 Datos: %d paquetes, reparaciones: %d (%.1f%%), NACKs recibidos: %d, "
+                        + "pedidos repetidos ignorados: %d, %.2f s%n", dataSent, repairsSent,
+                100.0 * repairsSent / Math.max(1, dataSent), nacksReceived, duplicateRequests, seconds);
+    }
+
+    private SocketAddress receive() throws IOException {
+        recvBuffer.clear();
+        SocketAddress from = channel.receive(recvBuffer);
+        recvBuffer.flip();
+        return from;
+    }
+
+    private void onNack(NackPacket nack) {
+        nacksReceived++;
+        lastActivity = System.currentTimeMillis();
+        for (int i = 0; i < nack.getRangeCount(); i++) {
+            int from = Math.max(0, nack.getStart(i));
+            int to = Math.min(nack.getEnd(i), nextSeq - 1); // lo aún no enviado llegará por el flujo normal
+            for (int seq = from; seq <= to; seq++) {
+                if (lastActivity - lastRepairAt[seq] < REPAIR_HOLDOFF_MS) {
+                    duplicateRequests++;
+                } else {
+                    repairQueue.set(seq);
+                }
+            }
+        }
+    }
+
+    private void send(int seq) throws IOException {
+        int start = seq * packetSize;
+        int end = Math.min(start + packetSize, fileData.capacity());
+        Packet packet = new Packet(seq, totalPackets, start, fileData.slice(start, end - start));
+        sendBuffer.clear();
+        packet.writeTo(sendBuffer);
+        sendBuffer.flip();
+        channel.send(sendBuffer, group);
+    }
+
+    // Canal unido al grupo; SO_REUSEADDR permite varios receptores (y el servidor) en el mismo host
+    static DatagramChannel openGroupChannel(InetAddress group, int port, NetworkInterface iface) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(port));
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, iface);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        channel.join(group, iface);
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    // Interfaz pedida por nombre o, si no, la primera con multicast que no sea loopback (o loopback si no hay)
+    static NetworkInterface pickInterface(String name) throws IOException {
+        if (name != null) {
+            NetworkInterface ni = NetworkInterface.getByName(name);
+            if (ni == null) throw new IOException("No existe la interfaz " + name);
+            return ni;
+        }
+        Enumeration<NetworkInterface> all = NetworkInterface.getNetworkInterfaces();
+        while (all.hasMoreElements()) {
+            NetworkInterface ni = all.nextElement();
+            if (ni.isUp() && ni.supportsMulticast() && !ni.isLoopback()) return ni;
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    public static void main(String[] args) {
+        String fileName = null, iface = null, groupAddr = DEFAULT_GROUP;
+        int port = DEFAULT_PORT, rate = DEFAULT_RATE, payload = TransferSession.DEFAULT_PACKET_SIZE;
+        int idle = DEFAULT_IDLE_MS;
+        for (String arg : args) {
+            if (arg.startsWith("--group=")) groupAddr = arg.substring(8);
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("--iface=")) iface = arg.substring(8);
+            else if (arg.startsWith("--rate=")) rate = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("--payload=")) payload = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--idle=")) idle = Integer.parseInt(arg.substring(7));
+            else fileName = arg;
+        }
+        if (fileName == null || !new File(fileName).isFile()) {
+            System.out.println("Uso: MulticastServer <archivo> [--group=] [--port=] [--iface=] [--rate=] [--payload=] [--idle=]");
+            return;
+        }
+        try {
+            InetSocketAddress group = new InetSocketAddress(InetAddress.getByName(groupAddr), port);
+            new MulticastServer(new File(fileName), group, pickInterface(iface), payload, rate, idle).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
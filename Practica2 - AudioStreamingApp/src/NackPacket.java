@@ -0,0 +1,40 @@
+//NACK multicast: rangos de paquetes que le faltan a un receptor. Va al grupo para que los demás lo escuchen
+//y supriman su propio NACK por los mismos huecos.
+//Formato binario: [tipo 'N'][id del receptor int][n byte][n pares de int inicio/fin]
+package com.example.network;
+
+import java.nio.ByteBuffer;
+
+public class NackPacket {
+    public static final byte TYPE = 'N';
+    public static final int MAX_RANGES = 16;
+    public static final int MAX_SIZE = 1 + 4 + 1 + MAX_RANGES * 8;
+
+    private final int senderId;   // distingue receptores en el mismo host (comparten ip:puerto del grupo)
+    private final int[] ranges;   // pares [inicio, fin] inclusivos
+
+    public NackPacket(int senderId, int[] ranges) {
+        if (ranges.length > MAX_RANGES * 2) throw new IllegalArgumentException("Demasiados rangos");
+        this.senderId = senderId;
+        this.ranges = ranges;
+    }
+
+    public int getSenderId() { return senderId; }
+    public int getRangeCount() { return ranges.length / 2; }
+    public int getStart(int i) { return ranges[2 * i]; }
+    public int getEnd(int i) { return ranges[2 * i + 1]; }
+
+    public void writeTo(ByteBuffer dst) {
+        dst.put(TYPE).putInt(senderId).put((byte) getRangeCount());
+        for (int v : ranges) dst.putInt(v);
+    }
+
+    public static NackPacket readFrom(ByteBuffer src) {
+        if (src.get() != TYPE) throw new IllegalArgumentException("No es un NACK");
+        int senderId = src.getInt();
+        int count = Math.min(src.get() & 0xFF, MAX_RANGES);
+        int[] ranges = new int[count * 2];
+        for (int i = 0; i < ranges.length; i++) ranges[i] = src.getInt();
+        return new NackPacket(senderId, ranges);
+    }
+}
@@ -1,27 +1,60 @@
-//Clase que encapsula el nombre del archivo, número de paquete, no. de paquetes, tam arreglo y datos.
+//Clase que encapsula número de paquete, no. de paquetes, posición en el archivo y datos.
+//Formato binario: [tipo 'D'][seq int][total int][offset long][len int][datos...]
+//seq es relativo al rango pedido (0 = primer paquete del rango); offset siempre es absoluto en el archivo.
+//seq = -1 indica que la solicitud se rechazó (archivo inexistente o rango inválido).
 package com.example.network;
 
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 
-public class Packet implements Serializable {
-    private String fileName;
-    private int sequenceNumber;
-    private int totalPackets;
-    private int dataLength;
-    private byte[] data;
+public class Packet {
+    public static final byte TYPE = 'D';
+    public static final int HEADER_SIZE = 1 + 4 + 4 + 8 + 4;
 
-    public Packet(String fileName, int sequenceNumber, int totalPackets, int dataLength, byte[] data) {
-        this.fileName = fileName;
+    private final int sequenceNumber;
+    private final int totalPackets;
+    private final long offset;       // byte del archivo donde empiezan los datos
+    private final ByteBuffer data;   // vista (sin copia) sobre el archivo o el buffer de recepción
+
+    public Packet(int sequenceNumber, int totalPackets, long offset, ByteBuffer data) {
         this.sequenceNumber = sequenceNumber;
         this.totalPackets = totalPackets;
+        this.offset = offset;
         this.data = data;
-        this.dataLength = data.length;
     }
 
-    public String getFileName() { return fileName; }
+    // Respuesta a una solicitud de un archivo que el servidor no tiene o de un rango fuera del archivo
+    public static Packet notFound() {
+        return new Packet(-1, 0, 0, ByteBuffer.allocate(0));
+    }
+
+    public boolean isNotFound() { return sequenceNumber < 0; }
+
     public int getSequenceNumber() { return sequenceNumber; }
     public int getTotalPackets() { return totalPackets; }
-    public int getDataLength() { return dataLength; }
-    public byte[] getData() { return data; }
-}
+    public long getOffset() { return offset; }
+    public int getDataLength() { return data.remaining(); }
+    public ByteBuffer getData() { return data.duplicate(); }
 
+    // Escribe encabezado + datos en dst (el único copiado es hacia el buffer del datagrama)
+    public void writeTo(ByteBuffer dst) {
+        dst.put(TYPE)
+           .putInt(sequenceNumber)
+           .putInt(totalPackets)
+           .putLong(offset)
+           .putInt(data.remaining())
+           .put(data.duplicate());
+    }
+
+    // Lee un paquete desde src; los datos quedan como slice de src, sin copiarlos
+    public static Packet readFrom(ByteBuffer src) {
+        if (src.get() != TYPE) throw new IllegalArgumentException("No es un paquete de datos");
+        int seq = src.getInt();
+        int total = src.getInt();
+        long offset = src.getLong();
+        int len = src.getInt();
+        if (len < 0 || len > src.remaining()) throw new IllegalArgumentException("Longitud inválida: " + len);
+        ByteBuffer data = src.slice(src.position(), len);
+        src.position(src.position() + len);
+        return new Packet(seq, total, offset, data);
+    }
+}
@@ -0,0 +1,103 @@
+//Traza por paquete asíncrona y opcional (--trace). El hilo de red anota eventos en un anillo de arreglos
+//primitivos y un hilo aparte los imprime, así la consola deja de frenar al emisor. Apagada cuesta una
+//comparación; si el anillo se llena se descartan eventos y se cuentan.
+package com.example.network;
+
+public final class PacketTrace {
+    public static final byte SEND = 1;
+    public static final byte RESEND = 2;
+    public static final byte ACK = 3;       // ACK recibido (valor = número acumulado)
+    public static final byte NACK = 4;
+    public static final byte TIMEOUT = 5;   // valor = base de la ventana
+    public static final byte RECV = 6;
+    public static final byte ACK_SENT = 7;
+    public static final byte NACK_SENT = 8;
+    public static final byte FEC = 9;       // paquete reconstruido con paridad
+
+    private static final String[] NAMES = {"?", "SEND", "RESEND", "ACK", "NACK", "TIMEOUT", "RECV",
+            "ACK_SENT", "NACK_SENT", "FEC"};
+    private static final int CAPACITY = 1 << 16;
+    private static final int DRAIN_MS = 20;
+
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] values = new int[CAPACITY];
+    private static final byte[] kinds = new byte[CAPACITY];
+    private static final Object[] tags = new Object[CAPACITY]; // referencia ya existente (p. ej. la dirección del cliente)
+    private static final Object lock = new Object();
+    private static long head = 0, tail = 0, dropped = 0;
+    private static volatile boolean enabled = false;
+    private static long origin;
+
+    private PacketTrace() { }
+
+    public static synchronized void enable() {
+        if (enabled) return;
+        origin = System.nanoTime();
+        enabled = true;
+        Thread printer = new Thread(PacketTrace::printLoop, "packet-trace");
+        printer.setDaemon(true);
+        printer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(PacketTrace::drain));
+    }
+
+    public static boolean isEnabled() { return enabled; }
+
+    public static void record(byte kind, Object tag, int value) {
+        if (!enabled) return;
+        long now = System.nanoTime();
+        synchronized (lock) {
+            if (head - tail >= CAPACITY) {
+                dropped++;
+                return;
+            }
+            int i = (int) (head & (CAPACITY - 1));
+            times[i] = now;
+            kinds[i] = kind;
+            tags[i] = tag;
+            values[i] = value;
+            head++;
+        }
+    }
+
+    private static void printLoop() {
+        while (true) {
+            drain();
+            try {
+                Thread.sleep(DRAIN_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Imprime fuera del candado: solo se copia el evento bajo el candado
+    private static void drain() {
+        StringBuilder sb = new StringBuilder();
+        long lost;
+        while (true) {
+            long time;
+            int value;
+            byte kind;
+            Object tag;
+            synchronized (lock) {
+                if (tail == head) {
+                    lost = dropped;
+                    dropped = 0;
+                    break;
+                }
+                int i = (int) (tail & (CAPACITY - 1));
+                time = times[i];
+                value = values[i];
+                kind = kinds[i];
+                tag = tags[i];
+                tags[i] = null;
+                tail++;
+            }
+            sb.setLength(0);
+            sb.append("[trace] ").append(String.format("%.3f", (time - origin) / 1e6)).append(" ms ")
+              .append(NAMES[kind]).append(' ').append(tag).append(" #").append(value);
+            System.out.println(sb);
+        }
+        if (lost > 0) System.out.println("[trace] " + lost + " eventos descartados (anillo lleno)");
+    }
+}
@@ -0,0 +1,59 @@
+//Paquete de paridad FEC: XOR de un grupo de hasta K paquetes de datos consecutivos.
+//Con la paridad y K-1 paquetes del grupo el cliente reconstruye el que falta sin retransmisión.
+//Formato binario: [tipo 'F'][primer seq int][cuántos byte][XOR longitudes int][XOR offsets long][len int][XOR datos...]
+package com.example.network;
+
+import java.nio.ByteBuffer;
+
+public class ParityPacket {
+    public static final byte TYPE = 'F';
+    public static final int HEADER_SIZE = 1 + 4 + 1 + 4 + 8 + 4;
+    public static final int MAX_GROUP = 64;
+
+    private final int firstSeq;
+    private final int count;
+    private final int lengthXor;
+    private final long offsetXor;
+    private final ByteBuffer parity;
+
+    public ParityPacket(int firstSeq, int count, int lengthXor, long offsetXor, ByteBuffer parity) {
+        this.firstSeq = firstSeq;
+        this.count = count;
+        this.lengthXor = lengthXor;
+        this.offsetXor = offsetXor;
+        this.parity = parity;
+    }
+
+    public int getFirstSeq() { return firstSeq; }
+    public int getCount() { return count; }
+    public int getLengthXor() { return lengthXor; }
+    public long getOffsetXor() { return offsetXor; }
+    public ByteBuffer getParity() { return parity.duplicate(); }
+
+    public void writeTo(ByteBuffer dst) {
+        dst.put(TYPE)
+           .putInt(firstSeq)
+           .put((byte) count)
+           .putInt(lengthXor)
+           .putLong(offsetXor)
+           .putInt(parity.remaining())
+           .put(parity.duplicate());
+    }
+
+    // La paridad se copia: el cliente la guarda hasta completar el grupo y el buffer de recepción se reutiliza
+    public static ParityPacket readFrom(ByteBuffer src) {
+        if (src.get() != TYPE) throw new IllegalArgumentException("No es un paquete de paridad");
+        int firstSeq = src.getInt();
+        int count = src.get() & 0xFF;
+        int lengthXor = src.getInt();
+        long offsetXor = src.getLong();
+        int len = src.getInt();
+        if (count == 0 || count > MAX_GROUP || len < 0 || len > src.remaining()) {
+            throw new IllegalArgumentException("Paridad inválida");
+        }
+        ByteBuffer parity = ByteBuffer.allocate(len);
+        parity.put(src.slice(src.position(), len)).flip();
+        src.position(src.position() + len);
+        return new ParityPacket(firstSeq, count, lengthXor, offsetXor, parity);
+    }
+}
@@ -0,0 +1,90 @@
+//Solicitud del cliente: qué archivo (y qué rango de bytes) quiere recibir y con cuánta redundancia FEC.
+//Formato binario: [tipo 'R'][grupo FEC byte, 0 = sin FEC][flags byte][inicio long][fin long, 0 = hasta EOF]
+//                [payload short, 0 = el del servidor][len short][nombre UTF-8]
+//                [ventana de recepción short, en paquetes; opcional: si falta o es 0, TransferSession.MAX_WINDOW]
+package com.example.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class RequestPacket {
+    public static final byte TYPE = 'R';
+    public static final int MAX_NAME_BYTES = 512;
+    public static final int MAX_SIZE = 1 + 1 + 1 + 8 + 8 + 2 + 2 + MAX_NAME_BYTES + 2;
+    public static final int FLAG_FRAME_ALIGNED = 1;   // paquetes cortados en límites de frame MP3
+
+    private final String fileName;
+    private final int fecGroup;   // K: un paquete de paridad por cada K de datos
+    private final long startOffset;
+    private final long endOffset;
+    private final int payloadSize;   // bytes de datos por paquete que prefiere el cliente
+    private final int flags;
+    private final int receiveWindow; // paquetes que el cliente acepta por delante del esperado (0 = no anunciada)
+
+    public RequestPacket(String fileName, int fecGroup) {
+        this(fileName, fecGroup, 0, 0, 0);
+    }
+
+    public RequestPacket(String fileName, int fecGroup, long startOffset, long endOffset, int payloadSize) {
+        this(fileName, fecGroup, startOffset, endOffset, payloadSize, 0);
+    }
+
+    public RequestPacket(String fileName, int fecGroup, long startOffset, long endOffset, int payloadSize,
+                         int flags) {
+        this(fileName, fecGroup, startOffset, endOffset, payloadSize, flags, 0);
+    }
+
+    public RequestPacket(String fileName, int fecGroup, long startOffset, long endOffset, int payloadSize,
+                         int flags, int receiveWindow) {
+        if (fecGroup < 0 || fecGroup > ParityPacket.MAX_GROUP) {
+            throw new IllegalArgumentException("Grupo FEC fuera de rango: " + fecGroup);
+        }
+        if (startOffset < 0 || endOffset < 0 || (endOffset > 0 && endOffset <= startOffset)) {
+            throw new IllegalArgumentException("Rango inválido: " + startOffset + "-" + endOffset);
+        }
+        if (payloadSize < 0 || payloadSize > 0xFFFF) {
+            throw new IllegalArgumentException("Tamaño de payload inválido: " + payloadSize);
+        }
+        if (receiveWindow < 0 || receiveWindow > 0xFFFF) {
+            throw new IllegalArgumentException("Ventana de recepción inválida: " + receiveWindow);
+        }
+        this.fileName = fileName;
+        this.fecGroup = fecGroup;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.payloadSize = payloadSize;
+        this.flags = flags & 0xFF;
+        this.receiveWindow = receiveWindow;
+    }
+
+    public String getFileName() { return fileName; }
+    public int getFecGroup() { return fecGroup; }
+    public long getStartOffset() { return startOffset; }
+    public long getEndOffset() { return endOffset; }
+    public int getPayloadSize() { return payloadSize; }
+    public boolean isFrameAligned() { return (flags & FLAG_FRAME_ALIGNED) != 0; }
+    public int getReceiveWindow() { return receiveWindow; }
+
+    public void writeTo(ByteBuffer dst) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES) throw new IllegalArgumentException("Nombre demasiado largo");
+        dst.put(TYPE).put((byte) fecGroup).put((byte) flags).putLong(startOffset).putLong(endOffset)
+           .putShort((short) payloadSize).putShort((short) name.length).put(name).putShort((short) receiveWindow);
+    }
+
+    public static RequestPacket readFrom(ByteBuffer src) {
+        if (src.get() != TYPE) throw new IllegalArgumentException("No es una solicitud");
+        int fecGroup = src.get() & 0xFF;
+        int flags = src.get() & 0xFF;
+        long startOffset = src.getLong();
+        long endOffset = src.getLong();
+        int payloadSize = src.getShort() & 0xFFFF;
+        int len = src.getShort() & 0xFFFF;
+        if (len > MAX_NAME_BYTES || len > src.remaining()) throw new IllegalArgumentException("Nombre inválido");
+        byte[] name = new byte[len];
+        src.get(name);
+        int receiveWindow = src.remaining() >= 2 ? src.getShort() & 0xFFFF : 0; // clientes viejos no la mandan
+        return new RequestPacket(new String(name, StandardCharsets.UTF_8), fecGroup, startOffset, endOffset, payloadSize,
+                flags, receiveWindow);
+    }
+}
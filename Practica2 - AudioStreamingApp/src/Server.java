@@ -2,139 +2,279 @@ package com.example.network;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
+// Servidor multi-sesión: cada cliente pide un archivo y recibe su propia transferencia.
+// Todas las sesiones comparten un DatagramChannel no bloqueante, un Selector y una rueda de temporizadores.
 public class Server {
     private static final int PORT = 5000;
-    private static final int PACKET_SIZE = 1024; // bytes por fragmento
-    private static final int WINDOW_SIZE = 5;    // N en Go-Back-N
-    private static final int TIMEOUT = 2000;     // ms
+    private static final int TICK_MS = 10;        // resolución de la rueda de temporizadores
+    private static final int WHEEL_SLOTS = 512;   // 5.12 s por vuelta, de sobra para MAX_RTO
+    private static final int DEFAULT_MAX_PAYLOAD = 8192;
+    private static final int MAX_UDP_PAYLOAD = 65507 - ParityPacket.HEADER_SIZE;
+    private static final int MAX_BATCH = 256;     // datagramas drenados por vuelta antes de atender timers/envíos
+    private static final int DEFAULT_CACHE_MB = 64;
+    private static final int MAX_FRAME_TABLES = 64;  // tablas de cortes por frames MP3 que se recuerdan
 
-    public static void main(String[] args) {
-        //Se crea el socket para la comunicación del servidor con el cliente
-        try (DatagramSocket socket = new DatagramSocket(PORT)) {
-            socket.setSoTimeout(TIMEOUT);
+    private final Path rootDir;
+    private final int maxPayload;   // tope por paquete: ajustarlo al MTU de la ruta evita fragmentación IP
+    private int maxWindow = TransferSession.MAX_WINDOW; // tope propio; cada sesión usa además la ventana del cliente
+    private ChunkCache cache = new ChunkCache(DEFAULT_CACHE_MB * 1024L * 1024);
+    private PrintStream statsOut;          // volcado periódico en JSON (null = desactivado)
+    private long statsIntervalMs;
+    private long nextStatsAt;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final TimerWheel<TransferSession> wheel = new TimerWheel<>(TICK_MS, WHEEL_SLOTS, System.currentTimeMillis());
+    private final Map<SocketAddress, TransferSession> sessions = new HashMap<>();
+    private final Set<TransferSession> ready = new LinkedHashSet<>(); // sesiones con algo que enviar
+    // Cortes alineados a frames por (ruta, fecha, tamaño, payload): recorrer los frames de todo el archivo en cada
+    // solicitud frenaría a las demás sesiones del selector. LRU; las claves de versiones viejas envejecen solas
+    private final Map<String, int[]> frameTables = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) { return size() > MAX_FRAME_TABLES; }
+    };
 
-            // 👇 Verifica si se pasó un archivo como argumento
-            String fileName; File file;
+    private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(2048);
+    private final ByteBuffer sendBuffer;
 
-            if (args.length > 0) {
-                file = new File(args[0]);
-                fileName = args[0];
-            } else {
-                // Si no hay argumento, lo pedimos por consola
-                Scanner sc = new Scanner(System.in);
-                System.out.print("Ingresa el nombre del archivo MP3 a enviar: ");
-                fileName = sc.nextLine();
-                file = new File(fileName);
-            }
+    public Server(Path rootDir, int port) throws IOException {
+        this(rootDir, port, DEFAULT_MAX_PAYLOAD, 0, 0);
+    }
 
-            if (!file.exists()) {
-                System.out.println("El archivo no existe: " + file.getAbsolutePath());
-                return;
-            }
-            // - - - - - -- - - - - - - - - - - - - - - - - - - -   
+    // sndBuf/rcvBuf = 0 deja el tamaño del SO
+    public Server(Path rootDir, int port, int maxPayload, int sndBuf, int rcvBuf) throws IOException {
+        this.rootDir = rootDir.toAbsolutePath().normalize();
+        this.maxPayload = Math.max(TransferSession.MIN_PACKET_SIZE, Math.min(maxPayload, MAX_UDP_PAYLOAD));
+        this.sendBuffer = ByteBuffer.allocateDirect(ParityPacket.HEADER_SIZE + this.maxPayload);
+        this.channel = DatagramChannel.open();
+        if (sndBuf > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, sndBuf);
+        if (rcvBuf > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, rcvBuf);
+        this.channel.bind(new InetSocketAddress(port));
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, SelectionKey.OP_READ);
+        System.out.println("🎧 Servidor en puerto " + getPort() + ", sirviendo archivos de " + this.rootDir
+                + " (payload máx " + this.maxPayload + " B, SO_SNDBUF " + channel.getOption(StandardSocketOptions.SO_SNDBUF)
+                + ", SO_RCVBUF " + channel.getOption(StandardSocketOptions.SO_RCVBUF) + ")");
+    }
+
+    public void setMaxWindow(int maxWindow) { this.maxWindow = Math.max(1, maxWindow); }
+    public void setCacheSize(long bytes) { this.cache = bytes > 0 ? new ChunkCache(bytes) : null; }
+    public ChunkCache getCache() { return cache; }
 
-            byte[] fileData = readFileToByteArray(file);
+    // Cada intervalMs escribe una línea JSON por sesión activa en out
+    public void setStatsDump(PrintStream out, long intervalMs) {
+        this.statsOut = out;
+        this.statsIntervalMs = intervalMs;
+        this.nextStatsAt = System.currentTimeMillis() + intervalMs;
+    }
 
-            int totalPackets = (int) Math.ceil((double) fileData.length / PACKET_SIZE);
-            System.out.println("Total de paquetes a enviar: " + totalPackets);
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
 
-            InetAddress clientAddress = InetAddress.getByName("localhost");
-            int clientPort = 6000;
+    public void loop() throws IOException {
+        while (true) {
+            selector.select(TICK_MS);
+            selector.selectedKeys().clear();
 
-            int base = 0;
-            int nextSeqNum = 0;
+            // Drena los datagramas pendientes en esta vuelta (acotado para no retrasar timers)
+            SocketAddress from;
+            int batch = 0;
+            while (batch++ < MAX_BATCH && (from = receive()) != null) {
+                try {
+                    handleDatagram(from, recvBuffer);
+                } catch (RuntimeException e) {
+                    System.out.println("Datagrama inválido de " + from + ": " + e.getMessage());
+                }
+            }
 
-            long startTime = 0;
+            wheel.advance(System.currentTimeMillis(), this::onTimeout);
+            flushReady();
+            dumpStats();
+        }
+    }
 
-            while (base < totalPackets) {
-                // Envía los paquetes dentro de la ventana
-                while (nextSeqNum < base + WINDOW_SIZE && nextSeqNum < totalPackets) {
-                    byte[] fragment = getPacketData(fileData, nextSeqNum);
-                    Packet packet = new Packet(fileName, nextSeqNum, totalPackets, fragment.length, fragment);
+    private void dumpStats() {
+        if (statsOut == null || System.currentTimeMillis() < nextStatsAt) return;
+        nextStatsAt += statsIntervalMs;
+        for (TransferSession session : sessions.values()) statsOut.println(session.toJson());
+        statsOut.flush();
+    }
 
-                    byte[] sendData = serialize(packet);
-                    DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, clientAddress, clientPort);
-                    socket.send(sendPacket);
-                    System.out.println("📦 Enviado paquete #" + nextSeqNum);
-                    
-                    if (base == nextSeqNum) {
-                        startTime = System.currentTimeMillis(); // inicia temporizador
-                    }
-                    nextSeqNum++;
-                }
+    private SocketAddress receive() throws IOException {
+        recvBuffer.clear();
+        SocketAddress from = channel.receive(recvBuffer);
+        recvBuffer.flip();
+        return from;
+    }
 
-                // Espera ACK
-                try {
-                    byte[] ackBuffer = new byte[1024];
-                    DatagramPacket ackPacket = new DatagramPacket(ackBuffer, ackBuffer.length);
-                    socket.receive(ackPacket);
-
-                    AckPacket ack = (AckPacket) deserialize(ackBuffer);
-
-                    if (!ack.isNack()) {
-                        System.out.println("✅ ACK recibido: " + ack.getAckNumber());
-                        base = ack.getAckNumber() + 1;
-
-                        if (base == nextSeqNum) {
-                            // ventana vacía → detiene temporizador
-                            startTime = 0;
-                        } else {
-                            // reinicia temporizador
-                            startTime = System.currentTimeMillis();
-                        }
-                    } else {
-                        System.out.println("NACK recibido: " + ack.getAckNumber());
-                        nextSeqNum = base; // retroceso N
-                    }
-
-                } catch (SocketTimeoutException e) {
-                    System.out.println("Timeout. Retransmitiendo desde " + base);
-                    nextSeqNum = base;
-                }
+    private void handleDatagram(SocketAddress from, ByteBuffer data) throws IOException {
+        byte type = data.get(data.position());
+        if (type == RequestPacket.TYPE) {
+            handleRequest(from, RequestPacket.readFrom(data));
+        } else if (type == AckPacket.TYPE) {
+            TransferSession session = sessions.get(from);
+            if (session == null) return; // ACK tardío de una sesión ya cerrada
+            if (session.onAck(AckPacket.readFrom(data))) {
+                wheel.reschedule(session.getTimer(), session.getRto());
+            }
+            if (session.isComplete()) {
+                finish(session);
+            } else {
+                ready.add(session);
             }
+        }
+    }
 
-            System.out.println("Archivo enviado completamente.");
+    private void handleRequest(SocketAddress from, RequestPacket request) throws IOException {
+        if (sessions.containsKey(from)) return; // reintento de una solicitud ya atendida
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        File file = resolve(request.getFileName());
+        if (file == null) {
+            System.out.println("El archivo no existe: " + request.getFileName() + " (pedido por " + from + ")");
+            sendNotFound(from);
+            return;
+        }
+        if (request.getStartOffset() >= file.length()) {
+            System.out.println("Rango inválido: " + request.getFileName() + " desde " + request.getStartOffset()
+                    + " (pedido por " + from + ")");
+            sendNotFound(from);
+            return;
+        }
+        int packetSize = request.getPayloadSize() == 0 ? TransferSession.DEFAULT_PACKET_SIZE
+                : Math.max(TransferSession.MIN_PACKET_SIZE, Math.min(request.getPayloadSize(), maxPayload));
+        ByteBuffer data = fileData(file);
+        int[] packetStarts = request.isFrameAligned() ? frameTable(file, data, packetSize) : null;
+        TransferSession session = new TransferSession(from, request.getFileName(), data,
+                request.getFecGroup(), request.getStartOffset(), request.getEndOffset(), packetSize, maxWindow,
+                request.getReceiveWindow() > 0 ? request.getReceiveWindow() : TransferSession.MAX_WINDOW, packetStarts);
+        System.out.println("▶️ Nueva sesión " + from + " → " + request.getFileName()
+                + " desde byte " + request.getStartOffset()
+                + (request.getEndOffset() > 0 ? " hasta " + request.getEndOffset() : "")
+                + " (" + session.getTotalPackets() + " paquetes de " + (packetStarts != null ? "hasta " : "")
+                + packetSize + " B" + (packetStarts != null ? " alineados a frames" : "") + ", FEC K=" + request.getFecGroup()
+                + ", " + (sessions.size() + 1) + " activas)");
+        if (cache != null) System.out.println("📊 Caché: " + cache);
+        sessions.put(from, session);
+        session.setTimer(wheel.schedule(session, session.getRto()));
+        ready.add(session);
+    }
+
+    private void onTimeout(TransferSession session) {
+        session.onTimeout();
+        if (session.isAbandoned()) {
+            System.out.println("❌ Cliente " + session.getClient() + " no responde; sesión cerrada.");
+            sessions.remove(session.getClient());
+            ready.remove(session);
+            return;
         }
+        wheel.reschedule(session.getTimer(), session.getRto());
+        ready.add(session);
     }
 
-    // Lee el archivo MP3 como arreglo de bytes
-    private static byte[] readFileToByteArray(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[PACKET_SIZE];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                bos.write(buffer, 0, bytesRead);
+    private void finish(TransferSession session) {
+        wheel.cancel(session.getTimer());
+        sessions.remove(session.getClient());
+        ready.remove(session);
+        session.printSummary();
+        System.out.println("Archivo enviado completamente a " + session.getClient() + ".");
+    }
+
+    // Envía por turnos; si el socket se llena se espera OP_WRITE para seguir
+    private void flushReady() throws IOException {
+        Iterator<TransferSession> it = ready.iterator();
+        while (it.hasNext()) {
+            TransferSession session = it.next();
+            if (!session.fill(channel, sendBuffer)) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
             }
-            return bos.toByteArray();
+            it.remove();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private int[] frameTable(File file, ByteBuffer data, int packetSize) {
+        String key = file.getPath() + "|" + file.lastModified() + "|" + file.length() + "|" + packetSize;
+        int[] starts = frameTables.get(key);
+        if (starts == null) {
+            starts = Mp3Framer.packetize(data, packetSize);
+            frameTables.put(key, starts);
         }
+        return starts;
     }
 
-    // Obtiene fragmento i del archivo
-    private static byte[] getPacketData(byte[] fileData, int seqNum) {
-        int start = seqNum * PACKET_SIZE;
-        int end = Math.min(start + PACKET_SIZE, fileData.length);
-        return Arrays.copyOfRange(fileData, start, end);
+    // Solo se sirven archivos dentro del directorio raíz
+    private File resolve(String name) {
+        Path path = rootDir.resolve(name).normalize();
+        if (!path.startsWith(rootDir)) return null;
+        File file = path.toFile();
+        return file.isFile() ? file : null;
     }
 
-    // Serialización de objetos Packet
-    private static byte[] serialize(Object obj) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        oos.writeObject(obj);
-        oos.flush();
-        return bos.toByteArray();
+    private void sendNotFound(SocketAddress to) throws IOException {
+        sendBuffer.clear();
+        Packet.notFound().writeTo(sendBuffer);
+        sendBuffer.flip();
+        channel.send(sendBuffer, to);
     }
 
-    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(data);
-        ObjectInputStream ois = new ObjectInputStream(bis);
-        return ois.readObject();
+    // Los archivos populares se sirven desde la caché; los que no caben se mapean como siempre
+    private ByteBuffer fileData(File file) throws IOException {
+        ByteBuffer cached = cache != null ? cache.get(file) : null;
+        return cached != null ? cached : mapFile(file);
+    }
+
+    // Mapea el archivo MP3 en memoria: el SO pagina bajo demanda, no se copia al heap
+    private static MappedByteBuffer mapFile(File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+    }
+
+    public static void main(String[] args) {
+        // 👇 Uso: Server [directorio] [puerto] [--max-payload=<B>] [--max-window=<paquetes>] [--sndbuf=<B>] [--rcvbuf=<B>]
+        //                [--cache-mb=<MB>, 0 = sin caché] [--trace] [--stats-interval=<ms>] [--stats-file=<ruta>]
+        //                (--max-window acota cwnd; nunca pasa de la ventana de recepción que anuncia cada cliente)
+        List<String> positional = new ArrayList<>();
+        int maxPayload = DEFAULT_MAX_PAYLOAD, maxWindow = TransferSession.MAX_WINDOW, sndBuf = 0, rcvBuf = 0;
+        int cacheMb = DEFAULT_CACHE_MB;
+        long statsInterval = 0;
+        String statsFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("--max-payload=")) maxPayload = Integer.parseInt(arg.substring(14));
+            else if (arg.startsWith("--max-window=")) maxWindow = Integer.parseInt(arg.substring(13));
+            else if (arg.startsWith("--cache-mb=")) cacheMb = Integer.parseInt(arg.substring(11));
+            else if (arg.equals("--trace")) PacketTrace.enable();
+            else if (arg.startsWith("--stats-interval=")) statsInterval = Long.parseLong(arg.substring(17));
+            else if (arg.startsWith("--stats-file=")) statsFile = arg.substring(13);
+            else if (arg.startsWith("--sndbuf=")) sndBuf = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--rcvbuf=")) rcvBuf = Integer.parseInt(arg.substring(9));
+            else positional.add(arg);
+        }
+        Path root = Paths.get(positional.size() > 0 ? positional.get(0) : ".");
+        int port = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : PORT;
+        try {
+            Server server = new Server(root, port, maxPayload, sndBuf, rcvBuf);
+            server.setMaxWindow(maxWindow);
+            server.setCacheSize(cacheMb * 1024L * 1024);
+            if (statsFile != null && statsInterval <= 0) statsInterval = 1000;
+            if (statsInterval > 0) {
+                server.setStatsDump(statsFile == null ? System.out
+                        : new PrintStream(new FileOutputStream(statsFile, true), false, "UTF-8"), statsInterval);
+            }
+            server.loop();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
-        
-}
\ No newline at end of file
+}
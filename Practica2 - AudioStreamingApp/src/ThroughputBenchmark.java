@@ -0,0 +1,100 @@
+//Benchmark del camino de E/S en loopback: paquetes/s y MB/s por tamaño de payload (512 B a 8 KB).
+//El emisor codifica cada Packet en un buffer directo reutilizado; el receptor drena ráfagas con otro.
+//Uso: ThroughputBenchmark [duración ms por tamaño] [--sndbuf=<B>] [--rcvbuf=<B>]
+package com.example.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ThroughputBenchmark {
+    private static final int[] PAYLOAD_SIZES = {512, 1024, 1472, 2048, 4096, 8192};
+    private static final int MAX_BATCH = 256;
+
+    public static void main(String[] args) throws Exception {
+        long durationMs = 1000;
+        int sndBuf = 0, rcvBuf = 4 * 1024 * 1024;
+        for (String arg : args) {
+            if (arg.startsWith("--sndbuf=")) sndBuf = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("--rcvbuf=")) rcvBuf = Integer.parseInt(arg.substring(9));
+            else durationMs = Long.parseLong(arg);
+        }
+
+        System.out.printf("%8s %10s %10s %7s %12s %9s%n", "payload", "enviados", "recibidos", "pérdida", "paquetes/s", "MB/s");
+        for (int size : PAYLOAD_SIZES) {
+            run(size, durationMs, sndBuf, rcvBuf);
+        }
+    }
+
+    private static void run(int payloadSize, long durationMs, int sndBuf, int rcvBuf) throws Exception {
+        try (DatagramChannel receiver = DatagramChannel.open();
+             DatagramChannel sender = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            if (rcvBuf > 0) receiver.setOption(StandardSocketOptions.SO_RCVBUF, rcvBuf);
+            if (sndBuf > 0) sender.setOption(StandardSocketOptions.SO_SNDBUF, sndBuf);
+            receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            receiver.configureBlocking(false);
+            receiver.register(selector, SelectionKey.OP_READ);
+            sender.connect(receiver.getLocalAddress());
+
+            AtomicBoolean sending = new AtomicBoolean(true);
+            long[] stats = new long[3]; // recibidos, bytes de payload, ns activos
+            Thread recvThread = new Thread(() -> {
+                try {
+                    receiveLoop(receiver, selector, sending, stats);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "bench-recv");
+            recvThread.start();
+
+            ByteBuffer payload = ByteBuffer.allocateDirect(payloadSize);
+            ByteBuffer sendBuffer = ByteBuffer.allocateDirect(Packet.HEADER_SIZE + payloadSize);
+            long sent = 0;
+            long deadline = System.nanoTime() + durationMs * 1_000_000;
+            while (System.nanoTime() < deadline) {
+                payload.clear();
+                Packet packet = new Packet((int) sent, Integer.MAX_VALUE, sent * payloadSize, payload);
+                sendBuffer.clear();
+                packet.writeTo(sendBuffer);
+                sendBuffer.flip();
+                sender.write(sendBuffer);
+                sent++;
+            }
+            sending.set(false);
+            recvThread.join();
+
+            double seconds = Math.max(1, stats[2]) / 1e9;
+            System.out.printf("%6d B %10d %10d %6.1f%% %12.0f %9.1f%n", payloadSize, sent, stats[0],
+                    100.0 * (sent - stats[0]) / Math.max(1, sent),
+                    stats[0] / seconds, stats[1] / seconds / (1024 * 1024));
+        }
+    }
+
+    private static void receiveLoop(DatagramChannel channel, Selector selector, AtomicBoolean sending,
+                                    long[] stats) throws IOException {
+        ByteBuffer recvBuffer = ByteBuffer.allocateDirect(65507);
+        long first = 0, last = 0;
+        // Tras el fin del envío se sigue drenando hasta 200 ms de silencio
+        while (selector.select(200) > 0 || sending.get()) {
+            selector.selectedKeys().clear();
+            for (int batch = 0; batch < MAX_BATCH; batch++) {
+                recvBuffer.clear();
+                if (channel.receive(recvBuffer) == null) break;
+                recvBuffer.flip();
+                Packet packet = Packet.readFrom(recvBuffer);
+                last = System.nanoTime();
+                if (first == 0) first = last;
+                stats[0]++;
+                stats[1] += packet.getDataLength();
+            }
+        }
+        stats[2] = last - first;
+    }
+}
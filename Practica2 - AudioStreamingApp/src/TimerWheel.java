@@ -0,0 +1,87 @@
+//Rueda de temporizadores (hashed timing wheel): programar y cancelar en O(1), avanzar en O(1) por tick.
+//Cada ranura es una lista doblemente enlazada; los temporizadores a más de una vuelta se saltan hasta su tick.
+package com.example.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class TimerWheel<T> {
+
+    public static final class Timer<T> {
+        private final T payload;
+        private long deadlineTick;
+        private Timer<T> prev, next;
+
+        private Timer(T payload) { this.payload = payload; }
+
+        public T getPayload() { return payload; }
+        public boolean isPending() { return prev != null; }
+    }
+
+    private final long tickMillis;
+    private final Timer<T>[] slots;   // centinelas de cada ranura
+    private final int mask;
+    private final long startMillis;
+    private long currentTick = 0;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickMillis, int slotCount, long nowMillis) {
+        if (Integer.bitCount(slotCount) != 1) throw new IllegalArgumentException("slotCount debe ser potencia de 2");
+        this.tickMillis = tickMillis;
+        this.slots = new Timer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            Timer<T> sentinel = new Timer<>(null);
+            sentinel.prev = sentinel.next = sentinel;
+            slots[i] = sentinel;
+        }
+        this.mask = slotCount - 1;
+        this.startMillis = nowMillis;
+    }
+
+    public long getTickMillis() { return tickMillis; }
+
+    public Timer<T> schedule(T payload, long delayMillis) {
+        Timer<T> timer = new Timer<>(payload);
+        reschedule(timer, delayMillis);
+        return timer;
+    }
+
+    // Reutiliza el mismo temporizador (sin crear objetos) al reiniciar un timeout
+    public void reschedule(Timer<T> timer, long delayMillis) {
+        cancel(timer);
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        timer.deadlineTick = currentTick + ticks;
+        Timer<T> head = slots[(int) (timer.deadlineTick & mask)];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    public void cancel(Timer<T> timer) {
+        if (timer.prev == null) return;
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+    }
+
+    // Avanza hasta nowMillis y entrega los temporizadores vencidos (el callback puede reprogramarlos)
+    public void advance(long nowMillis, Consumer<T> onExpire) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        List<Timer<T>> expired = new ArrayList<>();
+        while (currentTick < targetTick) {
+            currentTick++;
+            Timer<T> head = slots[(int) (currentTick & mask)];
+            for (Timer<T> t = head.next; t != head; ) {
+                Timer<T> next = t.next;
+                if (t.deadlineTick <= currentTick) {
+                    cancel(t);
+                    expired.add(t);
+                }
+                t = next;
+            }
+        }
+        for (Timer<T> t : expired) onExpire.accept(t.payload);
+    }
+}
@@ -0,0 +1,302 @@
+//Estado de envío de un archivo hacia un cliente: ventana de congestión, marcador SACK, temporizador y telemetría.
+package com.example.network;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class TransferSession {
+    public static final int DEFAULT_PACKET_SIZE = 1024; // bytes por fragmento si el cliente no pide otro
+    public static final int MIN_PACKET_SIZE = 256;
+    public static final int MAX_WINDOW = 256;   // tope de cwnd por defecto (buffer del receptor)
+    public static final int INITIAL_RTO = 1000; // ms, antes de la primera muestra de RTT (RFC 6298)
+    public static final int MIN_RTO = 200;      // ms, piso del RTO calculado
+    public static final int MAX_RTO = 4000;     // ms, tope del backoff (menos de una vuelta de la rueda)
+    public static final int MAX_TIMEOUTS = 10;  // timeouts seguidos antes de abandonar al cliente
+    public static final int DUP_THRESH = 3;     // paquetes SACKeados por encima de un hueco para darlo por perdido
+
+    // Estados del marcador SACK
+    private static final byte SENT = 1;
+    private static final byte SACKED = 2;
+    private static final byte LOST = 3;
+    private static final byte RESENT = 4; // retransmitido: se vuelve a dar por perdido si llegan DUP_THRESH enviados después
+
+    private final SocketAddress client;
+    private final String fileName;
+    private final ByteBuffer fileData;  // contenido del archivo (caché o mapeo), compartido entre sesiones
+    private final int packetSize;       // bytes por fragmento negociados para esta sesión
+    private final int[] packetStarts;   // inicio de cada fragmento alineado a frames MP3 (null = tamaño fijo)
+    private final int firstChunk;       // fragmento del archivo donde empieza el rango pedido
+    private final int endByte;          // fin (exclusivo) del rango pedido
+    private final int totalPackets;
+    private final int fecGroup;         // K del FEC (0 = sin paridad)
+    private final byte[] parityScratch; // acumulador XOR reutilizado entre grupos
+    private final CongestionControl cc;
+    private final int receiveWindow;    // el cliente descarta lo que llegue a receiveWindow o más de la base
+    private final byte[] state;
+    private final long[] sentAt;        // nanoTime del último envío de cada paquete (para el RTT)
+    private final int[] sendOrder;      // número de transmisión del último envío de cada paquete
+    private final TransferStats stats = new TransferStats();
+
+    private int base = 0;
+    private int nextSeqNum = 0;
+    private int recoveryPoint = -1;    // una sola reducción de ventana por episodio de pérdida
+    private int consecutiveTimeouts = 0;
+    private int transmissions = 0;     // contador de envíos (originales y retransmisiones)
+    private int highestAckedOrder = -1; // transmisión más reciente que el cliente confirmó
+
+    // Estimador de RTO de RFC 6298 (en nanosegundos); srtt < 0 = aún sin muestras
+    private long srtt = -1;
+    private long rttvar = 0;
+    private int rto = INITIAL_RTO;     // ms, se duplica en cada timeout hasta MAX_RTO
+
+    private TimerWheel.Timer<TransferSession> timer;
+
+    // El rango [startOffset, endOffset) se alinea hacia abajo a un fragmento; endOffset = 0 significa hasta EOF.
+    // packetStarts (de Mp3Framer) da fragmentos de frames completos de hasta packetSize bytes; null = cortes fijos.
+    // La ventana de congestión nunca supera la de recepción que anunció el cliente
+    public TransferSession(SocketAddress client, String fileName, ByteBuffer fileData, int fecGroup,
+                           long startOffset, long endOffset, int packetSize, int maxWindow, int receiveWindow,
+                           int[] packetStarts) {
+        this.client = client;
+        this.fileName = fileName;
+        this.fileData = fileData;
+        this.packetSize = packetSize;
+        this.packetStarts = packetStarts;
+        this.endByte = (int) (endOffset == 0 ? fileData.capacity() : Math.min(endOffset, fileData.capacity()));
+        if (packetStarts == null) {
+            this.firstChunk = (int) (startOffset / packetSize);
+            this.totalPackets = (int) Math.ceil((double) (endByte - (long) firstChunk * packetSize) / packetSize);
+        } else {
+            this.firstChunk = chunkAt(packetStarts, startOffset);
+            this.totalPackets = chunkAt(packetStarts, endByte - 1) + 1 - firstChunk;
+        }
+        this.state = new byte[totalPackets];
+        this.sentAt = new long[totalPackets];
+        this.sendOrder = new int[totalPackets];
+        this.fecGroup = fecGroup;
+        this.parityScratch = fecGroup > 0 ? new byte[packetSize] : null;
+        this.receiveWindow = receiveWindow;
+        this.cc = new CongestionControl(Math.min(maxWindow, receiveWindow));
+    }
+
+    public SocketAddress getClient() { return client; }
+    public int getTotalPackets() { return totalPackets; }
+    public int getPacketSize() { return packetSize; }
+    public boolean isComplete() { return base >= totalPackets; }
+    public boolean isAbandoned() { return consecutiveTimeouts >= MAX_TIMEOUTS; }
+    public int getRto() { return rto; }
+
+    public TimerWheel.Timer<TransferSession> getTimer() { return timer; }
+    public void setTimer(TimerWheel.Timer<TransferSession> timer) { this.timer = timer; }
+
+    // Envía retransmisiones pendientes y luego paquetes nuevos sin exceder cwnd.
+    // Devuelve false si el buffer del socket se llenó (hay que esperar OP_WRITE).
+    public boolean fill(DatagramChannel channel, ByteBuffer sendBuffer) throws IOException {
+        int pipe = countInFlight();
+        for (int seq = base; seq < nextSeqNum && pipe < cc.window(); seq++) {
+            if (state[seq] == LOST) {
+                if (!sendPacket(channel, sendBuffer, seq)) return false;
+                PacketTrace.record(PacketTrace.RESEND, client, seq);
+                stats.onSend(true);
+                state[seq] = RESENT;
+                sendOrder[seq] = transmissions++;
+                pipe++;
+            }
+        }
+        while (pipe < cc.window() && nextSeqNum < totalPackets && nextSeqNum < base + receiveWindow) {
+            if (!sendPacket(channel, sendBuffer, nextSeqNum)) return false;
+            PacketTrace.record(PacketTrace.SEND, client, nextSeqNum);
+            stats.onSend(false);
+            sentAt[nextSeqNum] = System.nanoTime();
+            state[nextSeqNum] = SENT;
+            sendOrder[nextSeqNum] = transmissions++;
+            // Al cerrar un grupo de K (o el último, incompleto) se envía su paridad; fuera de la ventana
+            if (fecGroup > 0 && ((nextSeqNum + 1) % fecGroup == 0 || nextSeqNum == totalPackets - 1)) {
+                int groupStart = nextSeqNum - nextSeqNum % fecGroup;
+                sendParity(channel, sendBuffer, groupStart, nextSeqNum - groupStart + 1);
+            }
+            nextSeqNum++;
+            pipe++;
+        }
+        stats.onInFlight(pipe);
+        return true;
+    }
+
+    // Procesa un ACK acumulativo + SACK; devuelve true si la base avanzó (reiniciar temporizador)
+    public boolean onAck(AckPacket ack) {
+        consecutiveTimeouts = 0;
+        long now = System.nanoTime();
+        int newlyAcked = 0;
+        int oldBase = base;
+        int cumAck = Math.min(ack.getAckNumber(), nextSeqNum - 1);
+        for (int seq = base; seq <= cumAck; seq++) {
+            newlyAcked += markAcked(seq, now);
+        }
+        base = Math.max(base, cumAck + 1);
+
+        int highestSacked = -1;
+        for (int i = 0; i < ack.getSackBlockCount(); i++) {
+            int from = Math.max(ack.getSackStart(i), base);
+            int to = Math.min(ack.getSackEnd(i), nextSeqNum - 1);
+            for (int seq = from; seq <= to; seq++) {
+                newlyAcked += markAcked(seq, now);
+            }
+            highestSacked = Math.max(highestSacked, to);
+        }
+        PacketTrace.record(ack.isNack() ? PacketTrace.NACK : PacketTrace.ACK, client, ack.getAckNumber());
+        stats.onAck(ack.isNack());
+        cc.onAck(newlyAcked);
+
+        // Un hueco con DUP_THRESH paquetes confirmados por encima se da por perdido
+        boolean lossDetected = false;
+        for (int seq = base; seq <= highestSacked - DUP_THRESH; seq++) {
+            if (state[seq] == SENT) {
+                state[seq] = LOST;
+                lossDetected = true;
+            }
+        }
+        // Una retransmisión se pierde igual: si ya se confirmaron DUP_THRESH envíos posteriores, se repite
+        for (int seq = base; seq < nextSeqNum; seq++) {
+            if (state[seq] == RESENT && sendOrder[seq] + DUP_THRESH <= highestAckedOrder) {
+                state[seq] = LOST;
+                lossDetected = true;
+            }
+        }
+        if (ack.isNack() && base < nextSeqNum && state[base] == SENT) {
+            state[base] = LOST;
+            lossDetected = true;
+        }
+        if (lossDetected && base > recoveryPoint) {
+            cc.onLoss();
+            recoveryPoint = nextSeqNum - 1;
+        }
+        return base > oldBase;
+    }
+
+    // Marca seq como confirmado; devuelve 1 si es nuevo. Solo los no retransmitidos dan muestra de RTT (Karn)
+    private int markAcked(int seq, long now) {
+        if (state[seq] == SACKED) return 0;
+        if (state[seq] == SENT) onRttSample(now - sentAt[seq]);
+        highestAckedOrder = Math.max(highestAckedOrder, sendOrder[seq]);
+        state[seq] = SACKED;
+        return 1;
+    }
+
+    // RFC 6298: SRTT y RTTVAR con ganancias 1/8 y 1/4; RTO = SRTT + 4·RTTVAR acotado a [MIN_RTO, MAX_RTO].
+    // Una muestra nueva también deshace el backoff de los timeouts anteriores
+    private void onRttSample(long nanos) {
+        stats.onRtt(nanos);
+        if (srtt < 0) {
+            srtt = nanos;
+            rttvar = nanos / 2;
+        } else {
+            rttvar += (Math.abs(srtt - nanos) - rttvar) / 4;
+            srtt += (nanos - srtt) / 8;
+        }
+        rto = (int) Math.min(MAX_RTO, Math.max(MIN_RTO, (srtt + 4 * rttvar) / 1_000_000));
+    }
+
+    public void onTimeout() {
+        consecutiveTimeouts++;
+        PacketTrace.record(PacketTrace.TIMEOUT, client, base);
+        stats.onTimeout();
+        cc.onTimeout();
+        rto = Math.min(MAX_RTO, rto * 2);
+        for (int seq = base; seq < nextSeqNum; seq++) {
+            if (state[seq] != SACKED) state[seq] = LOST;
+        }
+        recoveryPoint = nextSeqNum - 1;
+    }
+
+    public void printSummary() {
+        System.out.printf("📊 [%s] %s: ventana final %.1f paquetes (máx %.1f, ssthresh %.1f), episodios de pérdida: %d%n",
+                client, fileName, cc.getCwnd(), cc.getPeakWindow(), cc.getSsthresh(), cc.getLossEvents());
+        System.out.printf("📊 [%s] %s%n", client, stats.summary(ackedBytes()));
+        if (fecGroup > 0) {
+            System.out.printf("📊 [%s] FEC K=%d: %d paquetes de paridad%n", client, fecGroup, stats.getParitySent());
+        }
+    }
+
+    // Línea JSON para el volcado periódico del servidor
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(384);
+        sb.append("{\"client\":\"").append(client).append("\",\"file\":\"")
+          .append(fileName.replace("\\", "\\\\").replace("\"", "\\\""))
+          .append("\",\"packets\":").append(totalPackets)
+          .append(",\"base\":").append(base)
+          .append(",\"cwnd\":").append(String.format(Locale.ROOT, "%.1f", cc.getCwnd()))
+          .append(",\"ssthresh\":").append(String.format(Locale.ROOT, "%.1f", cc.getSsthresh()))
+          .append(",\"inflight\":").append(countInFlight()).append(',');
+        stats.appendJson(sb, ackedBytes());
+        return sb.append('}').toString();
+    }
+
+    // Bytes del rango ya confirmados en orden
+    private long ackedBytes() {
+        return Math.min(offsetOf(base), endByte) - offsetOf(0);
+    }
+
+    // Paquetes enviados que aún no se confirman ni se dan por perdidos
+    private int countInFlight() {
+        int pipe = 0;
+        for (int seq = base; seq < nextSeqNum; seq++) {
+            if (state[seq] == SENT || state[seq] == RESENT) pipe++;
+        }
+        return pipe;
+    }
+
+    private boolean sendPacket(DatagramChannel channel, ByteBuffer sendBuffer, int seq) throws IOException {
+        Packet packet = new Packet(seq, totalPackets, offsetOf(seq), getPacketData(seq));
+        sendBuffer.clear();
+        packet.writeTo(sendBuffer);
+        sendBuffer.flip();
+        return channel.send(sendBuffer, client) > 0;
+    }
+
+    // Paridad XOR del grupo [groupStart, groupStart + count); es de mejor esfuerzo, no se retransmite
+    private void sendParity(DatagramChannel channel, ByteBuffer sendBuffer, int groupStart, int count)
+            throws IOException {
+        Arrays.fill(parityScratch, (byte) 0);
+        int lengthXor = 0;
+        long offsetXor = 0;
+        int maxLen = 0;
+        for (int seq = groupStart; seq < groupStart + count; seq++) {
+            ByteBuffer data = getPacketData(seq);
+            int len = data.remaining();
+            for (int i = 0; i < len; i++) parityScratch[i] ^= data.get(i);
+            lengthXor ^= len;
+            offsetXor ^= offsetOf(seq);
+            maxLen = Math.max(maxLen, len);
+        }
+        ParityPacket parity = new ParityPacket(groupStart, count, lengthXor, offsetXor,
+                ByteBuffer.wrap(parityScratch, 0, maxLen));
+        sendBuffer.clear();
+        parity.writeTo(sendBuffer);
+        sendBuffer.flip();
+        if (channel.send(sendBuffer, client) > 0) stats.onParity();
+    }
+
+    // Posición absoluta en el archivo del paquete seq (relativo al rango)
+    private long offsetOf(int seq) {
+        int chunk = firstChunk + seq;
+        if (packetStarts == null) return (long) chunk * packetSize;
+        return chunk < packetStarts.length ? packetStarts[chunk] : fileData.capacity();
+    }
+
+    // Obtiene fragmento i del rango (vista sobre el buffer del archivo, sin copia)
+    private ByteBuffer getPacketData(int seqNum) {
+        int start = (int) offsetOf(seqNum);
+        int end = (int) Math.min(offsetOf(seqNum + 1), endByte);
+        return fileData.slice(start, end - start);
+    }
+
+    // Índice del fragmento que contiene el byte pos
+    private static int chunkAt(int[] starts, long pos) {
+        int i = Arrays.binarySearch(starts, (int) pos);
+        return i >= 0 ? i : -i - 2;
+    }
+}
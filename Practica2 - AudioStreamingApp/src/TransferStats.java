@@ -0,0 +1,66 @@
+//Telemetría de una sesión de envío: contadores e histogramas (RTT, paquetes en vuelo) que se actualizan
+//en el camino caliente sin asignar memoria. Se resume al terminar y puede volcarse periódicamente como JSON.
+package com.example.network;
+
+import java.util.Locale;
+
+public class TransferStats {
+    private final Histogram rttMicros = new Histogram();   // muestras de paquetes no retransmitidos (Karn)
+    private final Histogram inFlight = new Histogram();    // ocupación de la ventana tras cada ronda de envío
+    private final long start = System.currentTimeMillis();
+    private long packetsSent = 0;
+    private long retransmissions = 0;
+    private long paritySent = 0;
+    private long acksReceived = 0;
+    private long nacksReceived = 0;
+    private long timeouts = 0;
+
+    public void onSend(boolean retransmission) {
+        packetsSent++;
+        if (retransmission) retransmissions++;
+    }
+
+    public void onParity() { paritySent++; }
+    public void onAck(boolean nack) {
+        acksReceived++;
+        if (nack) nacksReceived++;
+    }
+    public void onTimeout() { timeouts++; }
+    public void onRtt(long nanos) { rttMicros.record(nanos / 1000); }
+    public void onInFlight(int packets) { inFlight.record(packets); }
+
+    public long getRetransmissions() { return retransmissions; }
+    public long getParitySent() { return paritySent; }
+    public long getElapsedMillis() { return Math.max(1, System.currentTimeMillis() - start); }
+
+    // Resumen legible al cerrar la sesión
+    public String summary(long bytes) {
+        double seconds = getElapsedMillis() / 1000.0;
+        return String.format("goodput %.1f KB/s en %.2f s; enviados %d (retransmisiones %d, %.1f%%); "
+                        + "ACKs %d (NACKs %d); timeouts %d; RTT ms p50 %.2f p90 %.2f p99 %.2f máx %.2f; "
+                        + "en vuelo p50 %d máx %d",
+                bytes / 1024.0 / seconds, seconds, packetsSent, retransmissions,
+                100.0 * retransmissions / Math.max(1, packetsSent), acksReceived, nacksReceived, timeouts,
+                rttMicros.percentile(50) / 1000.0, rttMicros.percentile(90) / 1000.0,
+                rttMicros.percentile(99) / 1000.0, rttMicros.getMax() / 1000.0,
+                inFlight.percentile(50), inFlight.getMax());
+    }
+
+    // Campos para el volcado periódico (una línea JSON por sesión)
+    public void appendJson(StringBuilder sb, long bytes) {
+        sb.append("\"elapsed_ms\":").append(getElapsedMillis())
+          .append(",\"bytes_acked\":").append(bytes)
+          .append(",\"goodput_kbps\":").append(String.format(Locale.ROOT, "%.1f", bytes * 8.0 / getElapsedMillis()))
+          .append(",\"sent\":").append(packetsSent)
+          .append(",\"retransmissions\":").append(retransmissions)
+          .append(",\"parity\":").append(paritySent)
+          .append(",\"acks\":").append(acksReceived)
+          .append(",\"nacks\":").append(nacksReceived)
+          .append(",\"timeouts\":").append(timeouts)
+          .append(",\"rtt_us_p50\":").append(rttMicros.percentile(50))
+          .append(",\"rtt_us_p99\":").append(rttMicros.percentile(99))
+          .append(",\"rtt_us_max\":").append(rttMicros.getMax())
+          .append(",\"inflight_p50\":").append(inFlight.percentile(50))
+          .append(",\"inflight_max\":").append(inFlight.getMax());
+    }
+}
@@ -2,6 +2,7 @@ package chatapp;
 
 import javax.sound.sampled.*;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 
 public final class AudioUtil {
@@ -10,22 +11,66 @@ public final class AudioUtil {
 
     /** Reproduce WAV (PCM) desde bytes. */
     public static void playWav(byte[] data) throws UnsupportedAudioFileException, IOException, LineUnavailableException {
-        try (AudioInputStream ais = AudioSystem.getAudioInputStream(new ByteArrayInputStream(data))) {
-            AudioFormat base = ais.getFormat();
-            AudioFormat decoded = new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED,
-                    base.getSampleRate(),
-                    16,
-                    base.getChannels(),
-                    base.getChannels()*2,
-                    base.getSampleRate(),
-                    false
-            );
-            try (AudioInputStream din = AudioSystem.getAudioInputStream(decoded, ais)) {
-                Clip clip = AudioSystem.getClip();
-                clip.open(din);
-                clip.start();
-            }
+        playWav(data, 0, data.length);
+    }
+
+    /** Reproduce WAV (PCM) desde un tramo de un arreglo (p.ej. el buffer de recepción, sin copiarlo). */
+    public static void playWav(byte[] data, int off, int len) throws UnsupportedAudioFileException, IOException, LineUnavailableException {
+        play(AudioSystem.getAudioInputStream(new ByteArrayInputStream(data, off, len)));
+    }
+
+    /** Reproduce WAV (PCM) desde un archivo ya en disco (media reensamblada). */
+    public static void playWav(File file) throws UnsupportedAudioFileException, IOException, LineUnavailableException {
+        play(AudioSystem.getAudioInputStream(file));
+    }
+
+    private static void play(AudioInputStream source) throws IOException, LineUnavailableException {
+        try (AudioInputStream din = toPcm16(source)) {
+            Clip clip = AudioSystem.getClip();
+            clip.open(din);
+            clip.start();
+        }
+    }
+
+    /** PCM con signo de 16 bits little-endian, misma frecuencia y canales (formato de la voz en vivo). */
+    public static AudioInputStream toPcm16(AudioInputStream source){
+        AudioFormat base = source.getFormat();
+        AudioFormat decoded = pcm16(base.getSampleRate(), base.getChannels());
+        if (base.matches(decoded)) return source;
+        return AudioSystem.getAudioInputStream(decoded, source);
+    }
+
+    public static AudioFormat pcm16(float sampleRate, int channels){
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, 16, channels, channels*2, sampleRate, false);
+    }
+
+    /** Destino de la voz en vivo: la salida de audio o ninguno (pruebas sin tarjeta de sonido). */
+    public interface Sink {
+        void write(byte[] pcm, int off, int len);
+        void close();
+    }
+
+    /** Sink que descarta el audio (modo --null-audio o si no hay salida disponible). */
+    public static final Sink NULL_SINK = new Sink() {
+        @Override public void write(byte[] pcm, int off, int len){}
+        @Override public void close(){}
+    };
+
+    /** Línea de salida con buffer corto (bufferMs), para que la latencia la decida el buffer de jitter. */
+    public static Sink openSink(AudioFormat format, int bufferMs, boolean nullAudio){
+        if (nullAudio) return NULL_SINK;
+        try {
+            SourceDataLine line = AudioSystem.getSourceDataLine(format);
+            int bytes = Math.round(format.getFrameRate() * bufferMs / 1000f) * format.getFrameSize();
+            line.open(format, bytes);
+            line.start();
+            return new Sink() {
+                @Override public void write(byte[] pcm, int off, int len){ line.write(pcm, off, len); }
+                @Override public void close(){ line.drain(); line.close(); }
+            };
+        } catch (LineUnavailableException | IllegalArgumentException e){
+            System.out.println("   (Sin salida de audio: "+e.getMessage()+"; la voz se descarta)");
+            return NULL_SINK;
         }
     }
 }
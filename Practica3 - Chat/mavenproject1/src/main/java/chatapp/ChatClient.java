@@ -3,8 +3,17 @@ package chatapp;
 import java.io.File;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cliente en consola.
@@ -15,7 +24,9 @@ import java.util.concurrent.ConcurrentHashMap;
  *   /msg <room> <texto...>
  *   /sticker <room> <ruta-img>
  *   /audio <room> <ruta-wav>
+ *   /voice <room> <ruta-wav | mic | stop>   (voz en vivo)
  *   /pm <usuario> <texto...>     (nuevo)
+ *   /history <room> [N | desde <offset>]
  *   /help
  *   /quit
  */
@@ -25,27 +36,75 @@ public class ChatClient {
     private final InetAddress serverHost;
     private final int serverPort;
     private final DatagramSocket ctlSock;   // unicast al servidor JOIN/LEAVE
-    private final DatagramSocket privSock;  // PM unicast entre clientes
+    private final DatagramChannel privChannel; // PM unicast entre clientes
+
+    // modo --selector: un hilo para todas las salas y los PMs (null en modo hilo por sala)
+    private final ClientEventLoop eventLoop;
+    private final DatagramChannel roomSender;  // envío multicast compartido por las salas
+    private final NetworkInterface iface;
 
     private final Map<String, Thread> threads = new ConcurrentHashMap<>();
     private final Map<String, RoomSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, RoomRoster> rosters = new ConcurrentHashMap<>();
 
     // agenda de peers: usuario -> ip:puertoPriv
     private final Map<String, InetSocketAddress> peers = new ConcurrentHashMap<>();
 
+    private double dropRate = 0; // --drop: pérdida simulada en las salas
+    private boolean nullAudio = false; // --null-audio: la voz en vivo no se reproduce (pruebas)
+
+    public static final int HISTORY_ON_JOIN = 20;
+    public static final long HEARTBEAT_MS = 5000;  // latido de presencia por sala al servidor
+    private static final DateTimeFormatter HH_MM = DateTimeFormatter.ofPattern("HH:mm");
+    // último offset de historial visto por sala: al volver se pide solo lo que falta
+    private final Map<String, Long> historySeen = new ConcurrentHashMap<>();
+
     public ChatClient(String username, String serverHost, int serverPort) throws Exception {
+        this(username, serverHost, serverPort, false);
+    }
+
+    public ChatClient(String username, String serverHost, int serverPort, boolean useSelector) throws Exception {
         this.username = username;
         this.serverHost = InetAddress.getByName(serverHost);
         this.serverPort = serverPort;
         this.ctlSock = new DatagramSocket();
-        this.privSock = new DatagramSocket(); // puerto aleatorio
+        this.privChannel = DatagramChannel.open(StandardProtocolFamily.INET).bind(null); // puerto aleatorio
         System.out.println("[CLIENT] Hola, "+username+" (server "+serverHost+":"+serverPort+")");
-        System.out.println("[CLIENT] Puerto privado (PM): " + privSock.getLocalPort());
+        System.out.println("[CLIENT] Puerto privado (PM): " + privPort());
+
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        // desfase aleatorio: clientes que arrancan juntos no laten a la vez
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats,
+                ThreadLocalRandom.current().nextLong(HEARTBEAT_MS), HEARTBEAT_MS, TimeUnit.MILLISECONDS);
 
-        // Hilo receptor de mensajes privados
-        Thread pmThread = new Thread(this::privLoop, "pm-recv");
-        pmThread.setDaemon(true);
-        pmThread.start();
+        if (useSelector){
+            this.iface = ClientEventLoop.pickInterface();
+            this.roomSender = DatagramChannel.open(StandardProtocolFamily.INET);
+            this.roomSender.setOption(StandardSocketOptions.IP_MULTICAST_IF, iface);
+            this.roomSender.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+            this.roomSender.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            this.eventLoop = new ClientEventLoop();
+            privChannel.configureBlocking(false);
+            eventLoop.register(privChannel, this::onPrivate);
+            Thread t = new Thread(eventLoop, "client-loop");
+            t.setDaemon(true);
+            t.start();
+            System.out.println("[CLIENT] Modo selector: un hilo para todas las salas ("+iface.getName()+")");
+        } else {
+            this.iface = null; this.roomSender = null; this.eventLoop = null;
+            // Hilo receptor de mensajes privados
+            Thread pmThread = new Thread(this::privLoop, "pm-recv");
+            pmThread.setDaemon(true);
+            pmThread.start();
+        }
+    }
+
+    private int privPort() throws IOException {
+        return ((InetSocketAddress) privChannel.getLocalAddress()).getPort();
     }
 
     private void sendToServer(byte[] data) throws IOException {
@@ -58,21 +117,62 @@ public class ChatClient {
             System.out.println("Ya estás en ["+room+"].");
             return;
         }
-        // 1) Notificar al servidor para que difunda USER_LIST (incluimos mi puerto privado)
-        sendToServer(Protocol.buildJoin(room, username, maddr, port, privSock.getLocalPort()));
-        // 2) Abrir sesión/escucha multicast de la sala con callback de USER_LIST
-        RoomSession rs = new RoomSession(room, maddr, port, username, this::onUserList);
-        Thread t = new Thread(rs, "room-"+room);
-        t.setDaemon(true);
-        t.start();
+        // 1) Abrir sesión/escucha multicast de la sala con callback de USER_LIST (antes del JOIN,
+        //    para no perder el delta con nuestra propia alta)
+        rosters.put(room, new RoomRoster(room, rosterListener));
+        RoomSession rs;
+        if (eventLoop != null){
+            rs = new RoomSession(room, maddr, port, username, this::onUserList, roomSender, iface);
+            rs.setDropRate(dropRate);
+            rs.setNullAudio(nullAudio);
+            eventLoop.register(rs.channel(), rs);
+        } else {
+            rs = new RoomSession(room, maddr, port, username, this::onUserList);
+            rs.setDropRate(dropRate);
+            rs.setNullAudio(nullAudio);
+            Thread t = new Thread(rs, "room-"+room);
+            t.setDaemon(true);
+            t.start();
+            threads.put(room, t);
+        }
         sessions.put(room, rs);
-        threads.put(room, t);
+        // 2) Notificar al servidor para que difunda el alta (incluimos mi puerto privado)
+        sendToServer(Protocol.buildJoin(room, username, maddr, port, privPort()));
+        // 3) Ponerse al día con el historial (si el servidor lo guarda)
+        Long seen = historySeen.get(room);
+        requestHistory(room, seen == null ? -1 : seen + 1, HISTORY_ON_JOIN);
+    }
+
+    private void sendHeartbeats(){
+        for (Map.Entry<String, RoomSession> e : sessions.entrySet()){
+            RoomSession rs = e.getValue();
+            try {
+                sendToServer(Protocol.buildHeartbeat(e.getKey(), username, rs.maddr(), rs.port(), privPort()));
+            } catch (IOException ignored){}
+        }
+    }
+
+    private void requestHistory(String room, long since, int last) throws IOException {
+        sendToServer(Protocol.buildHistoryRequest(room, username, since, last, privPort()));
+    }
+
+    private void onHistory(Protocol.Parsed pm){
+        for (RoomLog.Entry e : HistoryService.decode(pm)){
+            String at = Instant.ofEpochMilli(e.timestamp).atZone(ZoneId.systemDefault()).format(HH_MM);
+            System.out.println("["+pm.room+"] (historial #"+e.offset+" "+at+") "+e.from+": "+e.text);
+            historySeen.merge(pm.room, e.offset, Math::max);
+        }
     }
 
     private void leaveRoom(String room) throws IOException {
         RoomSession rs = sessions.remove(room);
         Thread t = threads.remove(room);
+        RoomRoster roster = rosters.remove(room);
+        if (roster != null){
+            for (String user : new ArrayList<>(peers.keySet())) if (roster.contains(user)) forgetPeer(user);
+        }
         if (rs != null){
+            if (eventLoop != null) eventLoop.unregister(rs.channel());
             rs.close();
             sendToServer(Protocol.buildLeave(room, username));
         } else {
@@ -113,6 +213,13 @@ public class ChatClient {
         rs.sendAudio(f, mime);
     }
 
+    private void voice(String room, String what) throws Exception {
+        RoomSession rs = sessions.get(room);
+        if (rs == null){ System.out.println("No estás en ["+room+"]."); return; }
+        if (what.equals("stop")) rs.stopVoice();
+        else rs.startVoice(what.equals("mic") ? null : new File(what));
+    }
+
     private static String guessMime(String name, String def){
         String low = name.toLowerCase(Locale.ROOT);
         if (low.endsWith(".png")) return "image/png";
@@ -124,45 +231,76 @@ public class ChatClient {
         return def;
     }
 
-    /** Actualiza agenda con USER_LIST en formato "usuario@ip:puerto,usuario2@ip:puerto2". */
-    private void onUserList(String room, String csv){
-        if (csv == null || csv.isBlank()) return;
-        String[] items = csv.split(",");
-        for (String item : items){
-            item = item.trim();
-            if (item.isEmpty()) continue;
-            String[] at = item.split("@", 2);
-            String name = at[0];
-            if (at.length == 2){
-                String[] ap = at[1].split(":", 2);
-                if (ap.length == 2){
-                    try {
-                        String ip = ap[0]; int port = Integer.parseInt(ap[1]);
-                        peers.put(name, new InetSocketAddress(ip, port));
-                    } catch (Exception ignored){}
-                }
+    /** Aplica un USER_LIST versionado a la lista de la sala; pide la foto completa si hay un hueco. */
+    private void onUserList(String room, Protocol.Parsed pm){
+        RoomRoster roster = rosters.get(room);
+        if (roster == null) return;
+        long before = roster.version();
+        if (roster.apply(pm, System.currentTimeMillis())){
+            try { sendToServer(Protocol.buildListRequest(room, username)); } catch (IOException ignored){}
+        }
+        if (roster.version() == before) return;
+        if (Protocol.metaGet(pm.meta, "page") != null){
+            System.out.println("\n[USER_LIST]["+room+"] v"+roster.version()+": "+roster+"\n> ");
+        } else {
+            String[] items = pm.text.split(",");
+            StringBuilder who = new StringBuilder();
+            for (int i = 0; i < Math.min(items.length, 5); i++) who.append(' ').append(items[i].split("@", 2)[0]);
+            if (items.length > 5) who.append(" ... (").append(items.length).append(" cambios)");
+            System.out.println("\n[USER_LIST]["+room+"] v"+roster.version()+" ("+roster.size()+" usuarios):"+who+"\n> ");
+        }
+    }
+
+    /** Mantiene la agenda de PMs: "usuario" -> ip:puerto, mientras esté en alguna de mis salas. */
+    private final RoomRoster.Listener rosterListener = new RoomRoster.Listener() {
+        @Override
+        public void onJoin(String room, String user, String addr){
+            String[] ap = addr.split(":", 2);
+            if (ap.length == 2){
+                try {
+                    String ip = ap[0]; int port = Integer.parseInt(ap[1]);
+                    peers.put(user, new InetSocketAddress(ip, port));
+                } catch (Exception ignored){}
             }
         }
+        @Override
+        public void onLeave(String room, String user){
+            forgetPeer(user);
+        }
+    };
+
+    private void forgetPeer(String user){
+        for (RoomRoster r : rosters.values()) if (r.contains(user)) return;
+        peers.remove(user);
     }
 
-    /** Loop que recibe PM por unicast. */
+    /** Loop que recibe PM por unicast (modo hilo). */
     private void privLoop(){
-        byte[] buf = new byte[Protocol.MAX_DATAGRAM];
-        while (!privSock.isClosed()){
+        ByteBuffer buf = ByteBuffer.allocate(Protocol.MAX_DATAGRAM);
+        while (privChannel.isOpen()){
             try {
-                DatagramPacket p = new DatagramPacket(buf, buf.length);
-                privSock.receive(p);
-                Protocol.Parsed pm = Protocol.parse(p.getData(), p.getLength());
-                if (pm.type == Protocol.Type.PRIVATE){
-                    System.out.println("\n[PM] " + pm.from + ": " + pm.text + "\n> ");
-                }
+                buf.clear();
+                privChannel.receive(buf);
+                buf.flip();
+                onPrivate(buf);
             } catch (IOException ignored) {
-            } catch (Exception ex){
-                System.err.println("[CLIENT] Error PM: " + ex.getMessage());
             }
         }
     }
 
+    private void onPrivate(ByteBuffer datagram){
+        try {
+            Protocol.Parsed pm = Protocol.parse(datagram);
+            if (pm.type == Protocol.Type.PRIVATE){
+                System.out.println("\n[PM] " + pm.from + ": " + pm.text + "\n> ");
+            } else if (pm.type == Protocol.Type.HISTORY){
+                onHistory(pm);
+            }
+        } catch (Exception ex){
+            System.err.println("[CLIENT] Error PM: " + ex.getMessage());
+        }
+    }
+
     /** Imprime la ayuda de comandos disponible. */
     private void printHelp() {
         System.out.println("""
@@ -171,9 +309,11 @@ public class ChatClient {
                   /leave <sala>                       Salir de una sala
                   /rooms                              Ver salas a las que estás unido
                   /msg <sala> <texto...>              Enviar mensaje de texto (emojis incluidos)
-                  /sticker <sala> <ruta-img>          Enviar imagen pequeña (~<60 KB)
-                  /audio <sala> <ruta-wav>            Enviar audio WAV pequeño
+                  /sticker <sala> <ruta-img>          Enviar imagen (se anuncia por hash; los bytes solo van a quien no la tenga)
+                  /audio <sala> <ruta-wav>            Enviar audio WAV (nota de voz de varios MB incluida)
+                  /voice <sala> <ruta-wav | mic | stop> Hablar en vivo (tramas de 20 ms) desde un WAV o el micrófono
                   /pm <usuario> <texto...>            Enviar mensaje privado (requiere que el usuario esté en la USER_LIST)
+                  /history <sala> [N | desde <offset>] Ver historial guardado por el servidor (últimos 20 por defecto)
                   /help                               Mostrar esta ayuda
                   /quit                               Cerrar el cliente
                 """);
@@ -215,6 +355,10 @@ public class ChatClient {
                     String[] p = line.split("\\s+", 3);
                     if (p.length < 3){ System.out.println("Uso: /audio <room> <ruta-wav>"); System.out.print("> "); continue; }
                     try { sendAudio(p[1], new File(p[2])); } catch (Exception e){ System.out.println("Error enviando audio: "+e.getMessage()); }
+                } else if (line.startsWith("/voice ")){
+                    String[] p = line.split("\\s+", 3);
+                    if (p.length < 3){ System.out.println("Uso: /voice <room> <ruta-wav | mic | stop>"); System.out.print("> "); continue; }
+                    try { voice(p[1], p[2]); } catch (Exception e){ System.out.println("Error con la voz: "+e.getMessage()); }
                 } else if (line.startsWith("/pm ")){
                     int i = line.indexOf(' ', 4);
                     if (i < 0){ System.out.println("Uso: /pm <usuario> <texto...>"); System.out.print("> "); continue; }
@@ -225,9 +369,16 @@ public class ChatClient {
                         System.out.println("No tengo dirección de "+target+" (espera un USER_LIST o verifica que esté en alguna sala contigo).");
                     } else {
                         byte[] data = Protocol.buildPrivate(username, target, txt);
-                        DatagramPacket pkt = new DatagramPacket(data, data.length, dst);
-                        try { privSock.send(pkt); } catch (Exception e){ System.out.println("No se pudo enviar PM: "+e.getMessage()); }
+                        try {
+                            if (privChannel.send(ByteBuffer.wrap(data), dst) == 0) System.out.println("No se pudo enviar PM: buffer lleno");
+                        } catch (Exception e){ System.out.println("No se pudo enviar PM: "+e.getMessage()); }
                     }
+                } else if (line.startsWith("/history ")){
+                    String[] p = line.split("\\s+");
+                    try {
+                        if (p.length >= 4 && p[2].equals("desde")) requestHistory(p[1], Long.parseLong(p[3]), 0);
+                        else requestHistory(p[1], -1, p.length >= 3 ? Integer.parseInt(p[2]) : HISTORY_ON_JOIN);
+                    } catch (Exception e){ System.out.println("Uso: /history <room> [N | desde <offset>]"); }
                 } else if (line.equals("/help")){
                     printHelp();
                 } else if (line.equals("/quit")){
@@ -242,23 +393,40 @@ public class ChatClient {
             for (String room : new ArrayList<>(sessions.keySet())){
                 try { leaveRoom(room); } catch (Exception ignored) {}
             }
-            privSock.close();
+            if (eventLoop != null) eventLoop.close();
+            try { privChannel.close(); } catch (IOException ignored) {}
+            if (roomSender != null) try { roomSender.close(); } catch (IOException ignored) {}
             ctlSock.close();
         }
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 3){
-            System.out.println("Uso: java chatapp.ChatClient <usuario> <serverHost> <serverPort>");
+            System.out.println("Uso: java chatapp.ChatClient <usuario> <serverHost> <serverPort> [--selector] [--drop <0..1>] [--null-audio] [--no-compress]");
             System.out.println("Ejemplo: java chatapp.ChatClient Alice 127.0.0.1 4446");
+            System.out.println("  --selector   un solo hilo (Selector) atiende todas las salas y los PMs");
+            System.out.println("  --null-audio la voz en vivo se recibe pero no se reproduce (sin tarjeta de sonido)");
+            System.out.println("  --no-compress no comprimir texto y metadatos (deflate con diccionario compartido)");
             return;
         }
         String user = args[0];
         String host = args[1];
         int port = Integer.parseInt(args[2]);
+        boolean selector = false, nullAudio = false;
+        double drop = 0;
+        for (int i = 3; i < args.length; i++){
+            if (args[i].equals("--drop") && i + 1 < args.length) drop = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--selector")) selector = true;
+            else if (args[i].equals("--null-audio")) nullAudio = true;
+            else if (args[i].equals("--no-compress")) Protocol.setCompression(false);
+            else System.out.println("[CLIENT] Opción desconocida: " + args[i]);
+        }
 
-        ChatClient c = new ChatClient(user, host, port);
+        ChatClient c = new ChatClient(user, host, port, selector);
+        c.dropRate = drop;
+        c.nullAudio = nullAudio;
         c.repl();
+        System.out.println("[CLIENT] Compresión: " + Protocol.compressionStats());
         System.out.println("Adiós.");
     }
 }
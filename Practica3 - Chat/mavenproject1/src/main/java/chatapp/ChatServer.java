@@ -1,98 +1,379 @@
 package chatapp;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servidor:
  * - Recibe JOIN/LEAVE por UDP unicast (serverPort).
- * - Retransmite USER_LIST por multicast a la sala correspondiente.
+ * - Difunde por multicast a la sala las altas/bajas como deltas versionados de USER_LIST; los cambios
+ *   de una sala se agrupan durante COALESCE_MS, así una avalancha de JOINs sale en pocos datagramas.
+ * - La lista completa (foto, paginada) solo sale si un cliente la pide (LIST_REQUEST) o periódicamente.
+ * - Presencia: los clientes mandan HEARTBEAT por sala; quien calla PRESENCE_TIMEOUT_MS se da de baja.
+ *   Los vencimientos los lleva una TimerWheel (O(1) por latido) y salen en el mismo delta agrupado.
  * - No toca tráfico de chat; solo listas de usuarios.
+ * - Con --workers N, un hilo recibe y parsea, y cada sala la atiende siempre el mismo de N workers
+ *   (hash del nombre): el estado de una sala sigue teniendo un único escritor y no lleva locks.
  */
 public class ChatServer {
 
+    public static final int SNAPSHOT_PAGE_BYTES = 1200;       // cabe en un MTU típico sin fragmentar IP
+    public static final long SNAPSHOT_MIN_INTERVAL_MS = 250;  // pedidos de foto de una sala se agrupan
+    public static final long SNAPSHOT_PERIOD_MS = 30_000;     // foto periódica, repara deltas perdidos
+    public static final long COALESCE_MS = 50;                // ventana para agrupar altas/bajas de una sala
+    private static final int TICK_MS = 50;
+    private static final int RECV_BUFFER = 1024 * 1024;       // holgura para avalanchas de JOIN
+    private static final int WORKER_QUEUE = 16 * 1024;        // mensajes de control en espera por worker
+    private static final int WORKER_BATCH = 256;              // mensajes seguidos antes de revisar timers
+    public static final long PRESENCE_TIMEOUT_MS = 3 * ChatClient.HEARTBEAT_MS + 1000; // tres latidos perdidos
+    private static final long WHEEL_TICK_MS = 250;
+    private static final int WHEEL_SLOTS = 128;                // una vuelta = 32 s > PRESENCE_TIMEOUT_MS
+    private static final int SNAPSHOT_WHEEL_SLOTS = 1024;      // de a TICK_MS: una vuelta = 51 s > SNAPSHOT_PERIOD_MS
+
+    private static final class Presence {
+        final RoomInfo info;
+        final String user;
+        Presence(RoomInfo info, String user){ this.info = info; this.user = user; }
+    }
+
     private static class RoomInfo {
         final String room;
         final String maddr;
         final int port;
         // usuario -> "ip:privPort"
         final Map<String, String> users = new ConcurrentHashMap<>();
+        final InetSocketAddress groupAddr;
+        long version = 0;                    // sube con cada datagrama de delta
+        long lastSnapshot = System.currentTimeMillis();
+        boolean snapshotRequested = false;
+        TimerWheel.Timer<RoomInfo> snapshotTimer;  // próxima foto: periódica o adelantada por un LIST_REQUEST
+        // cambios aún sin difundir: usuario -> "ip:privPort" (alta) o null (baja); el último gana
+        final Map<String, String> changes = new LinkedHashMap<>();
+        long flushAt = 0;
+        final Map<String, TimerWheel.Timer<Presence>> presence = new HashMap<>();
 
         RoomInfo(String room, String maddr, int port){
             this.room = room; this.maddr = maddr; this.port = port;
+            this.groupAddr = new InetSocketAddress(maddr, port);
         }
 
-        String usersCSV(){
-            return users.entrySet().stream()
-                    .map(e -> e.getKey()+"@"+e.getValue())
-                    .collect(Collectors.joining(","));
+        /** Cambios pendientes como "+usuario@ip:puerto" / "-usuario", en páginas de a lo sumo SNAPSHOT_PAGE_BYTES. */
+        List<String> changePages(){
+            List<String> pages = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> e : changes.entrySet()){
+                String item = e.getValue() == null ? "-"+e.getKey() : "+"+e.getKey()+"@"+e.getValue();
+                if (sb.length() > 0 && sb.length() + 1 + item.length() > SNAPSHOT_PAGE_BYTES){
+                    pages.add(sb.toString());
+                    sb.setLength(0);
+                }
+                if (sb.length() > 0) sb.append(',');
+                sb.append(item);
+            }
+            if (sb.length() > 0) pages.add(sb.toString());
+            return pages;
+        }
+
+        /** La lista como CSV "usuario@ip:puerto" partida en páginas de a lo sumo SNAPSHOT_PAGE_BYTES. */
+        List<String> snapshotPages(){
+            List<String> pages = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> e : users.entrySet()){
+                String item = e.getKey()+"@"+e.getValue();
+                if (sb.length() > 0 && sb.length() + 1 + item.length() > SNAPSHOT_PAGE_BYTES){
+                    pages.add(sb.toString());
+                    sb.setLength(0);
+                }
+                if (sb.length() > 0) sb.append(',');
+                sb.append(item);
+            }
+            pages.add(sb.toString()); // sala vacía: una página vacía
+            return pages;
         }
     }
 
     private final int serverPort;
-    private final Map<String, RoomInfo> rooms = new ConcurrentHashMap<>();
     private final DatagramSocket serverSock;
+    private final DatagramChannel out;                               // envío multicast, abierto una sola vez (compartido)
+    private HistoryService history;                                  // opcional (--history)
+    private final Shard[] shards;
+    private final Thread[] workers;                                  // vacío: todo en el hilo de loop()
+    private long queueDrops = 0, lastDropReport = 0;
+
+    /** Un mensaje de control ya parseado, camino a su shard. */
+    private static final class Work {
+        final Protocol.Parsed pm;
+        final InetAddress from;
+        Work(Protocol.Parsed pm, InetAddress from){ this.pm = pm; this.from = from; }
+    }
+
+    /**
+     * Las salas cuyo hash cae en este shard, con todo su estado (miembros, deltas pendientes, presencia).
+     * Un solo hilo lo toca: el de loop() sin workers, o su worker.
+     */
+    private final class Shard implements Runnable {
+        final int id;
+        final Map<String, RoomInfo> rooms = new ConcurrentHashMap<>();
+        // salas con cambios sin difundir; entran con flushAt = ahora + COALESCE_MS, así que quedan ordenadas por flushAt
+        final Set<RoomInfo> dirty = new LinkedHashSet<>();
+        final TimerWheel<Presence> presenceWheel = new TimerWheel<>(WHEEL_TICK_MS, WHEEL_SLOTS, System.currentTimeMillis());
+        final TimerWheel<RoomInfo> snapshotWheel = new TimerWheel<>(TICK_MS, SNAPSHOT_WHEEL_SLOTS, System.currentTimeMillis());
+        final BlockingQueue<Work> queue = new ArrayBlockingQueue<>(WORKER_QUEUE);
+        long deltaDatagrams = 0, changesSent = 0;
+        long lastTick = 0;
+
+        Shard(int id){ this.id = id; }
+
+        /** Un mensaje que falle se informa y se descarta: no puede tumbar el worker (ni el servidor sin workers). */
+        void handle(Protocol.Parsed pm, InetAddress from){
+            try {
+                if (pm.type == Protocol.Type.JOIN || pm.type == Protocol.Type.HEARTBEAT) handleJoin(pm, from);
+                else if (pm.type == Protocol.Type.LEAVE) handleLeave(pm);
+                else if (pm.type == Protocol.Type.LIST_REQUEST) handleListRequest(pm);
+            } catch (RuntimeException e){
+                System.err.println("[SERVER] Error atendiendo "+pm.type+" de "+pm.from+" sala="+pm.room+": "+e);
+            }
+        }
+
+        /** Milisegundos hasta el próximo tick o delta que venza. */
+        long untilNextTick(long now){
+            if (now - lastTick >= TICK_MS || now >= nextFlush()){ tick(); lastTick = now; }
+            return Math.max(1, Math.min(lastTick + TICK_MS, nextFlush()) - now);
+        }
+
+        /** Modo --workers: atiende su cola y sus timers. */
+        @Override
+        public void run(){
+            try {
+                while (true){
+                    Work w = queue.poll(untilNextTick(System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    for (int i = 0; w != null && i < WORKER_BATCH; i++){
+                        handle(w.pm, w.from);
+                        w = i + 1 < WORKER_BATCH ? queue.poll() : null;
+                    }
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void handleJoin(Protocol.Parsed pm, InetAddress senderAddr){
+            String room = pm.room;
+            String from = pm.from;
+            String maddr = Protocol.metaGet(pm.meta, "maddr");
+            String portStr = Protocol.metaGet(pm.meta, "port");
+            String privStr = Protocol.metaGet(pm.meta, "priv"); // puede venir null (cliente viejo)
+            int port = parsePort(portStr);
+            if (maddr == null || port <= 0 || !isMulticast(maddr)){
+                System.out.println("[SERVER] JOIN malformado de "+from+" room="+room+" meta="+pm.meta);
+                return;
+            }
+            int priv = 0;
+            try { if (privStr != null) priv = Integer.parseInt(privStr); } catch (Exception ignored){}
+
+            RoomInfo info = rooms.get(room);
+            if (info == null){
+                info = new RoomInfo(room, maddr, port);
+                info.snapshotTimer = snapshotWheel.schedule(info, SNAPSHOT_PERIOD_MS);
+                rooms.put(room, info);
+                if (history != null) history.track(room, maddr, port);
+            }
+            String ip = senderAddr.getHostAddress();
+            String addr = ip + ":" + priv;
+            touch(info, from);
+            if (addr.equals(info.users.put(from, addr))) return; // JOIN repetido o latido: nada cambió
+
+            System.out.println("[SERVER] "+from+" se unió a ["+room+
+                    "] ("+maddr+":"+port+") → "+info.users.size()+" usuarios");
+            change(info, from, addr);
+        }
+
+        private void handleLeave(Protocol.Parsed pm){
+            RoomInfo info = rooms.get(pm.room);
+            if (info == null || info.users.remove(pm.from) == null) return;
+            TimerWheel.Timer<Presence> timer = info.presence.remove(pm.from);
+            if (timer != null) presenceWheel.cancel(timer);
+            System.out.println("[SERVER] "+pm.from+" salió de ["+pm.room+"] → "+info.users.size()+" usuarios");
+            change(info, pm.from, null);
+        }
+
+        /** Reinicia el plazo de presencia del usuario (JOIN o HEARTBEAT). */
+        private void touch(RoomInfo info, String user){
+            TimerWheel.Timer<Presence> timer = info.presence.get(user);
+            if (timer == null) info.presence.put(user, presenceWheel.schedule(new Presence(info, user), PRESENCE_TIMEOUT_MS));
+            else presenceWheel.reschedule(timer, PRESENCE_TIMEOUT_MS);
+        }
+
+        /** Sin latidos a tiempo: baja como un LEAVE, agrupada con los demás cambios de la sala. */
+        private void expire(Presence p){
+            p.info.presence.remove(p.user);
+            if (p.info.users.remove(p.user) == null) return;
+            System.out.println("[SERVER] "+p.user+" dejó de responder en ["+p.info.room+"] → "+p.info.users.size()+" usuarios");
+            change(p.info, p.user, null);
+        }
+
+        /** Anota el cambio; la sala se difunde COALESCE_MS después del primer cambio pendiente. */
+        private void change(RoomInfo info, String user, String addr){
+            if (info.changes.isEmpty()){
+                info.flushAt = System.currentTimeMillis() + COALESCE_MS;
+                dirty.add(info);
+            }
+            info.changes.put(user, addr);
+        }
+
+        /** Difunde los cambios pendientes de la sala: un delta versionado por página. */
+        private void flush(RoomInfo info){
+            if (info.changes.isEmpty()) return;
+            List<String> pages = info.changePages();
+            for (String page : pages){
+                info.version++;
+                send(info, Protocol.buildUserDelta(info.room, info.version, page));
+            }
+            System.out.println("[SERVER] USER_LIST delta → "+info.room+" v"+info.version+" ("
+                    +info.changes.size()+" cambios en "+pages.size()+" datagramas)");
+            deltaDatagrams += pages.size();
+            changesSent += info.changes.size();
+            info.changes.clear();
+        }
+
+        /** El primero de dirty es el que vence antes (se insertan en orden de flushAt). */
+        private long nextFlush(){
+            return dirty.isEmpty() ? Long.MAX_VALUE : dirty.iterator().next().flushAt;
+        }
+
+        /** Adelanta la foto de la sala, sin bajar de SNAPSHOT_MIN_INTERVAL_MS desde la anterior (agrupa pedidos). */
+        private void handleListRequest(Protocol.Parsed pm){
+            RoomInfo info = rooms.get(pm.room);
+            if (info == null || info.snapshotRequested) return;
+            info.snapshotRequested = true;
+            long wait = info.lastSnapshot + SNAPSHOT_MIN_INTERVAL_MS - System.currentTimeMillis();
+            snapshotWheel.reschedule(info.snapshotTimer, Math.max(0, wait));
+        }
+
+        /** Deltas cuya ventana venció, bajas por presencia y fotos que tocan; cada rueda entrega solo lo vencido. */
+        private void tick(){
+            long now = System.currentTimeMillis();
+            presenceWheel.advance(now, this::expire);
+            for (Iterator<RoomInfo> it = dirty.iterator(); it.hasNext(); ){
+                RoomInfo info = it.next();
+                if (info.flushAt > now) break;
+                flush(info);
+                it.remove();
+            }
+            snapshotWheel.advance(now, this::snapshot);
+        }
+
+        /** Foto pedida o periódica (esta solo si hay alguien); la siguiente queda a SNAPSHOT_PERIOD_MS. */
+        private void snapshot(RoomInfo info){
+            snapshotWheel.reschedule(info.snapshotTimer, SNAPSHOT_PERIOD_MS);
+            if (!info.snapshotRequested && info.users.isEmpty()) return;
+            info.snapshotRequested = false;
+            info.lastSnapshot = System.currentTimeMillis();
+            if (dirty.remove(info)) flush(info); // la foto debe incluir lo pendiente
+            List<String> pages = info.snapshotPages();
+            for (int i = 0; i < pages.size(); i++){
+                send(info, Protocol.buildUserSnapshot(info.room, info.version, i, pages.size(), pages.get(i)));
+            }
+            System.out.println("[SERVER] Foto USER_LIST → "+info.room+" v"+info.version+" ("
+                    +info.users.size()+" usuarios, "+pages.size()+" páginas)");
+        }
+    }
 
     public ChatServer(int port) throws SocketException {
+        this(port, 0);
+    }
+
+    /** workers = 0: un solo hilo hace todo; N > 0: un hilo recibe y N workers se reparten las salas por hash. */
+    public ChatServer(int port, int workers) throws SocketException {
         this.serverPort = port;
         this.serverSock = new DatagramSocket(serverPort);
-        System.out.println("[SERVER] UDP escuchando en puerto " + serverPort);
-        System.out.println("[SERVER] Función única: retransmitir USER_LIST al entrar/salir.");
+        this.serverSock.setReceiveBufferSize(RECV_BUFFER);
+        try {
+            this.out = DatagramChannel.open(StandardProtocolFamily.INET);
+            this.out.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+        } catch (IOException e){
+            throw new SocketException("No se pudo abrir el canal de envío: " + e.getMessage());
+        }
+        this.shards = new Shard[Math.max(1, workers)];
+        for (int i = 0; i < shards.length; i++) shards[i] = new Shard(i);
+        this.workers = new Thread[workers];
+        System.out.println("[SERVER] UDP escuchando en puerto " + serverPort
+                + (workers > 0 ? " ("+workers+" workers por sala)" : ""));
+        System.out.println("[SERVER] Función única: difundir USER_LIST (deltas y fotos) al entrar/salir.");
     }
 
-    private void handleJoin(Protocol.Parsed pm, InetAddress senderAddr){
-        String room = pm.room;
-        String from = pm.from;
-        String maddr = Protocol.metaGet(pm.meta, "maddr");
-        String portStr = Protocol.metaGet(pm.meta, "port");
-        String privStr = Protocol.metaGet(pm.meta, "priv"); // puede venir null (cliente viejo)
-        if (maddr == null || portStr == null){
-            System.out.println("[SERVER] JOIN malformado de "+from+" room="+room+" meta="+pm.meta);
-            return;
+    /** Puerto 1..65535; -1 si falta o no es válido. */
+    private static int parsePort(String s){
+        try {
+            int port = s == null ? -1 : Integer.parseInt(s.trim());
+            return port >= 1 && port <= 65535 ? port : -1;
+        } catch (NumberFormatException e){
+            return -1;
         }
-        int port = Integer.parseInt(portStr);
-        int priv = 0;
-        try { if (privStr != null) priv = Integer.parseInt(privStr); } catch (Exception ignored){}
+    }
 
-        RoomInfo info = rooms.computeIfAbsent(room, r -> new RoomInfo(r, maddr, port));
-        String ip = senderAddr.getHostAddress();
-        info.users.put(from, ip + ":" + priv);
+    /** IPv4 multicast escrita como literal: se valida sin resolver nombres (el shard no debe bloquearse en DNS). */
+    private static boolean isMulticast(String maddr){
+        String[] octets = maddr.split("\\.", -1);
+        if (octets.length != 4) return false;
+        for (String o : octets){
+            if (!o.matches("\\d{1,3}") || Integer.parseInt(o) > 255) return false;
+        }
+        int first = Integer.parseInt(octets[0]);
+        return first >= 224 && first <= 239;
+    }
 
-        System.out.println("[SERVER] "+from+" se unió a ["+room+
-                "] ("+maddr+":"+port+") → usuarios="+info.usersCSV());
-        broadcastUserList(info);
+    private Shard shardOf(String room){
+        return shards[Math.floorMod(room.hashCode(), shards.length)];
     }
 
-    private void handleLeave(Protocol.Parsed pm){
-        RoomInfo info = rooms.get(pm.room);
-        if (info == null) return;
-        info.users.remove(pm.from);
-        System.out.println("[SERVER] "+pm.from+" salió de ["+pm.room+"] → usuarios="+info.usersCSV());
-        broadcastUserList(info);
+    /** Activa el historial de salas en `dir` (antes de loop()). */
+    public void enableHistory(File dir) throws IOException {
+        this.history = new HistoryService(dir);
+        for (Shard shard : shards)
+            for (RoomInfo info : shard.rooms.values()) history.track(info.room, info.maddr, info.port);
     }
 
-    private void broadcastUserList(RoomInfo info){
-        try (MulticastSocket ms = new MulticastSocket()){ // enviar (TTL 1)
-            ms.setTimeToLive(1);
-            byte[] data = Protocol.buildUserList(info.room, info.usersCSV());
-            DatagramPacket pkt = new DatagramPacket(
-                    data, data.length, InetAddress.getByName(info.maddr), info.port);
-            ms.send(pkt);
-            System.out.println("[SERVER] USER_LIST → "+info.room+
-                    " @ "+info.maddr+":"+info.port+" ["+data.length+" bytes]");
+    private void send(RoomInfo info, byte[] data){
+        try {
+            out.send(ByteBuffer.wrap(data), info.groupAddr);
         } catch (IOException e){
-            System.err.println("[SERVER] Error al enviar USER_LIST: " + e);
+            System.err.println("[SERVER] Error al enviar USER_LIST a "+info.room+": " + e);
         }
     }
 
     public void loop() throws IOException {
+        for (int i = 0; i < workers.length; i++){
+            workers[i] = new Thread(shards[i], "room-worker-"+i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
         byte[] buf = new byte[Protocol.MAX_DATAGRAM];
         while (true){
+            // sin workers, este hilo también lleva los timers del único shard
+            int wait = workers.length == 0 ? (int) Math.min(TICK_MS, shards[0].untilNextTick(System.currentTimeMillis())) : 0;
+            serverSock.setSoTimeout(wait);
             DatagramPacket p = new DatagramPacket(buf, buf.length);
-            serverSock.receive(p);
+            try {
+                serverSock.receive(p);
+            } catch (SocketTimeoutException idle){
+                continue;
+            }
             Protocol.Parsed pm;
             try {
                 pm = Protocol.parse(p.getData(), p.getLength());
@@ -100,19 +381,43 @@ public class ChatServer {
                 System.err.println("[SERVER] Ignorando datagrama inválido: " + ex.getMessage());
                 continue;
             }
-            if (pm.type == Protocol.Type.JOIN) handleJoin(pm, p.getAddress());
-            else if (pm.type == Protocol.Type.LEAVE) handleLeave(pm);
-            else {
+            switch (pm.type){
+                case JOIN, HEARTBEAT, LEAVE, LIST_REQUEST -> dispatch(pm, p.getAddress());
+                case HISTORY -> { if (history != null) history.request(pm, p.getAddress()); }
                 // No atendemos mensajes de chat: políticas del enunciado
-                System.out.println("[SERVER] Ignorado "+pm.type+" de "+pm.from+" sala="+pm.room);
+                default -> System.out.println("[SERVER] Ignorado "+pm.type+" de "+pm.from+" sala="+pm.room);
             }
         }
     }
 
+    /** Al shard de la sala: en línea sin workers, o a su cola (si está llena se descarta: es UDP y hay latidos). */
+    private void dispatch(Protocol.Parsed pm, InetAddress from){
+        Shard shard = shardOf(pm.room);
+        if (workers.length == 0){
+            shard.handle(pm, from);
+            return;
+        }
+        if (shard.queue.offer(new Work(pm, from))) return;
+        queueDrops++;
+        long now = System.currentTimeMillis();
+        if (now - lastDropReport >= 1000){
+            lastDropReport = now;
+            System.err.println("[SERVER] Worker "+shard.id+" saturado: "+queueDrops+" mensajes de control descartados");
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         int port = 4446;
-        if (args.length >= 1) port = Integer.parseInt(args[0]);
-        ChatServer server = new ChatServer(port);
+        int workers = 0;
+        File historyDir = null;
+        for (int i = 0; i < args.length; i++){
+            if (args[i].equals("--history") && i + 1 < args.length) historyDir = new File(args[++i]);
+            else if (args[i].equals("--workers") && i + 1 < args.length) workers = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--no-compress")) Protocol.setCompression(false);
+            else port = Integer.parseInt(args[i]);
+        }
+        ChatServer server = new ChatServer(port, workers);
+        if (historyDir != null) server.enableHistory(historyDir);
         server.loop();
     }
 }
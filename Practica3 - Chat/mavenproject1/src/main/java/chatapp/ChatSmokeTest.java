@@ -0,0 +1,210 @@
+package chatapp;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prueba de humo de punta a punta, sin tarjeta de sonido ni consola: levanta un ChatServer (con historial)
+ * y tres ChatClient como procesos aparte con el mismo classpath, les escribe comandos por stdin y espera
+ * lo que imprimen. Antes de los clientes le manda JOINs malformados (puerto o grupo inválidos) a la misma
+ * sala: el servidor debe descartarlos y seguir aceptando altas. Cubre USER_LIST, texto, sticker por hash (comparando los bytes), PM, voz en vivo con
+ * --null-audio e historial para quien entra tarde. Con --drop el receptor pierde esa fracción de datagramas
+ * y el sticker tiene que llegar igual por NACK.
+ * Sale con código 1 si algo no llegó a tiempo; los logs de cada proceso quedan en un directorio temporal.
+ * Uso: java chatapp.ChatSmokeTest [--port <p>] [--workers <n>] [--drop <0..1>] [--selector] [--no-compress]
+ */
+public class ChatSmokeTest {
+
+    private static final long WAIT_MS = 15_000;
+    private static final String ROOM = "g";
+    private static final String GROUP = "230.0.0.77";
+    private static final int STICKER_BYTES = 150_000;   // varios fragmentos
+    private static final int VOICE_MS = 1000;
+
+    /** Un proceso hijo: comandos por stdin y salida a un log que se puede esperar. */
+    private static final class Node {
+        final String name;
+        final File dir;
+        final Path log;
+        final Process proc;
+        final PrintWriter in;
+
+        Node(String name, File dir, String mainClass, List<String> args) throws IOException {
+            this.name = name;
+            this.dir = dir;
+            this.log = new File(dir, name+".log").toPath();
+            List<String> cmd = new ArrayList<>(List.of(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-Dfile.encoding=UTF-8", "-Dstdout.encoding=UTF-8",
+                    "-cp", System.getProperty("java.class.path"), mainClass));
+            cmd.addAll(args);
+            this.proc = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true)
+                    .redirectOutput(log.toFile()).start();
+            this.in = new PrintWriter(proc.getOutputStream(), true, StandardCharsets.UTF_8);
+        }
+
+        void send(String command){
+            in.println(command);
+        }
+
+        /** Espera una línea del log que cumpla `regex`; null si no aparece en WAIT_MS. */
+        Matcher await(String regex) throws IOException, InterruptedException {
+            Pattern p = Pattern.compile(regex);
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (System.currentTimeMillis() < deadline){
+                for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)){
+                    Matcher m = p.matcher(line);
+                    if (m.find()) return m;
+                }
+                if (!proc.isAlive()) break;
+                Thread.sleep(100);
+            }
+            return null;
+        }
+
+        void stop() throws InterruptedException {
+            if (proc.isAlive()) send("/quit");
+            if (!proc.waitFor(3, TimeUnit.SECONDS)) proc.destroyForcibly();
+        }
+    }
+
+    private int failures = 0;
+
+    private boolean check(String what, boolean ok, Node where){
+        System.out.println((ok ? "✅ " : "❌ ") + what + (ok ? "" : " (ver "+where.log+")"));
+        if (!ok) failures++;
+        return ok;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 4446, workers = 0;
+        double drop = 0;
+        List<String> clientOpts = new ArrayList<>(List.of("--null-audio"));
+        List<String> serverOpts = new ArrayList<>();
+        for (int i = 0; i < args.length; i++){
+            if (args[i].equals("--port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--workers") && i + 1 < args.length) workers = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--drop") && i + 1 < args.length) drop = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--selector")) clientOpts.add("--selector");
+            else if (args[i].equals("--no-compress")){ clientOpts.add("--no-compress"); serverOpts.add("--no-compress"); }
+            else System.out.println("Opción desconocida: " + args[i]);
+        }
+        if (workers > 0) serverOpts.addAll(List.of("--workers", String.valueOf(workers)));
+        System.exit(new ChatSmokeTest().run(port, drop, serverOpts, clientOpts) ? 0 : 1);
+    }
+
+    private boolean run(int port, double drop, List<String> serverOpts, List<String> clientOpts) throws Exception {
+        File root = Files.createTempDirectory("chatsmoke").toFile();
+        System.out.println("Logs en " + root);
+        String host = "127.0.0.1";
+        String join = "/join "+ROOM+" "+GROUP+" "+(port + 1000);
+
+        List<String> sArgs = new ArrayList<>(List.of(String.valueOf(port), "--history", "hist"));
+        sArgs.addAll(serverOpts);
+        Node server = new Node("server", dir(root, "server"), "chatapp.ChatServer", sArgs);
+        List<Node> clients = new ArrayList<>();
+        try {
+            Thread.sleep(500);
+            try (DatagramSocket probe = new DatagramSocket()){
+                InetSocketAddress to = new InetSocketAddress(host, port);
+                String[] groups = {GROUP, GROUP, "999.0.0.1", "localhost"};
+                int[] ports = {70000, -1, port + 1000, port + 1000};
+                for (int i = 0; i < groups.length; i++){
+                    byte[] bad = Protocol.buildJoin(ROOM, "malo"+i, groups[i], ports[i]);
+                    probe.send(new DatagramPacket(bad, bad.length, to));
+                }
+            }
+            check("JOIN malformado descartado", server.await("JOIN malformado") != null, server);
+
+            Node a = client(clients, root, "A", host, port, clientOpts);
+            List<String> lossy = new ArrayList<>(clientOpts);
+            if (drop > 0) lossy.addAll(List.of("--drop", String.valueOf(drop)));
+            Node b = client(clients, root, "B", host, port, lossy);
+
+            a.send(join);
+            b.send(join);
+            if (!check("USER_LIST con A y B", a.await("\\[USER_LIST\\]\\["+ROOM+"\\].*\\bB\\b") != null, a)) return false;
+
+            a.send("/msg "+ROOM+" hola desde A");
+            check("texto A → B", b.await("\\["+ROOM+"\\] A: hola desde A") != null, b);
+
+            byte[] sticker = new byte[STICKER_BYTES];
+            ThreadLocalRandom.current().nextBytes(sticker);
+            Files.write(new File(a.dir, "sticker.png").toPath(), sticker);
+            a.send("/sticker "+ROOM+" sticker.png");
+            File got = new File(b.dir, "downloads/"+ROOM+"/sticker.png");
+            check("sticker A → B"+(drop > 0 ? " con "+Math.round(drop * 100)+"% de pérdida" : ""),
+                    b.await("A envió sticker") != null && got.isFile()
+                            && Files.mismatch(got.toPath(), new File(a.dir, "sticker.png").toPath()) == -1, b);
+
+            a.send("/pm B secreto");
+            check("PM A → B", b.await("\\[PM\\] A: secreto") != null, b);
+
+            writeTone(new File(a.dir, "voz.wav"));
+            a.send("/voice "+ROOM+" voz.wav");
+            Matcher voice = b.await("Voz de A terminó: (\\d+) tramas");
+            check("voz en vivo A → B (sin audio)", voice != null && Integer.parseInt(voice.group(1)) > 0, b);
+
+            Node c = client(clients, root, "C", host, port, clientOpts);
+            c.send(join);
+            c.await("\\[USER_LIST\\]\\["+ROOM+"\\]");
+            c.send("/history "+ROOM);
+            check("historial para quien entra tarde", c.await("\\(historial #\\d+ .*\\) A: hola desde A") != null, c);
+        } finally {
+            for (Node n : clients) n.stop();
+            server.proc.destroy();
+            server.proc.waitFor(3, TimeUnit.SECONDS);
+        }
+        System.out.println(failures == 0 ? "Todo OK." : failures+" comprobaciones fallaron.");
+        return failures == 0;
+    }
+
+    private static Node client(List<Node> clients, File root, String user, String host, int port, List<String> opts)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(List.of(user, host, String.valueOf(port)));
+        args.addAll(opts);
+        Node n = new Node(user, dir(root, user), "chatapp.ChatClient", args);
+        clients.add(n);
+        n.await("Puerto privado");
+        return n;
+    }
+
+    private static File dir(File root, String name){
+        File d = new File(root, name);
+        d.mkdirs();
+        return d;
+    }
+
+    /** WAV de VOICE_MS con un tono de 440 Hz, 16 kHz mono 16 bits. */
+    private static void writeTone(File f) throws IOException {
+        AudioFormat fmt = new AudioFormat(16000, 16, 1, true, false);
+        int samples = 16000 * VOICE_MS / 1000;
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++){
+            short s = (short) (Math.sin(2 * Math.PI * 440 * i / 16000.0) * 8000);
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), fmt, samples)){
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, f);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package chatapp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Un solo hilo y un Selector para todas las salas del cliente y el socket de PMs.
+ * Cada datagrama se recibe en el único buffer del hilo, se parsea una vez y se atiende en el momento,
+ * así la memoria de recepción es fija sin importar cuántas salas haya.
+ */
+public class ClientEventLoop implements Runnable {
+
+    public static final int MAX_BATCH = 64;      // datagramas por canal y vuelta, para no acaparar el hilo
+    private static final int IDLE_MS = 1000;
+
+    /** Quien atiende los datagramas de un canal registrado. */
+    public interface Endpoint {
+        /** La vista es sobre el buffer compartido: válida solo durante la llamada. */
+        void onDatagram(ByteBuffer datagram);
+        /** Timers propios; devuelve el próximo vencimiento. */
+        default long tick(long now){ return Long.MAX_VALUE; }
+    }
+
+    private final Selector selector;
+    private final ByteBuffer buf = ByteBuffer.allocate(Protocol.MAX_DATAGRAM); // heap: el parser lee sin copiar
+    private final Map<DatagramChannel, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Queue<DatagramChannel> toRegister = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public ClientEventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /** Registra un canal no bloqueante; se puede llamar desde cualquier hilo. */
+    public void register(DatagramChannel channel, Endpoint endpoint){
+        endpoints.put(channel, endpoint);
+        toRegister.add(channel);
+        selector.wakeup();
+    }
+
+    /** Deja de atender el canal; cerrarlo basta para que el selector lo suelte. */
+    public void unregister(DatagramChannel channel){
+        endpoints.remove(channel);
+        selector.wakeup();
+    }
+
+    public void close(){
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run(){
+        long next = 0;
+        try {
+            while (running){
+                DatagramChannel ch;
+                while ((ch = toRegister.poll()) != null){
+                    try {
+                        if (endpoints.containsKey(ch)) ch.register(selector, SelectionKey.OP_READ, endpoints.get(ch));
+                    } catch (ClosedChannelException ignored){}
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= next){
+                    next = now + IDLE_MS;
+                    for (Endpoint e : endpoints.values()) next = Math.min(next, e.tick(now));
+                }
+                if (selector.select(Math.max(1, next - now)) == 0) continue;
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()){
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    Endpoint endpoint = (Endpoint) key.attachment();
+                    if (!endpoints.containsKey(channel)){ key.cancel(); continue; }
+                    for (int i = 0; i < MAX_BATCH; i++){
+                        buf.clear();
+                        try {
+                            if (channel.receive(buf) == null) break;
+                        } catch (IOException e){
+                            key.cancel();
+                            break;
+                        }
+                        buf.flip();
+                        endpoint.onDatagram(buf);
+                    }
+                }
+                // lo atendido puede haber abierto huecos: revisar timers en la próxima vuelta
+                next = 0;
+            }
+        } catch (IOException e){
+            System.err.println("[CLIENT] Error en el selector: " + e.getMessage());
+        } finally {
+            try { selector.close(); } catch (IOException ignored){}
+        }
+    }
+
+    /** Primera interfaz con multicast que no sea loopback (o loopback si no hay). */
+    public static NetworkInterface pickInterface() throws IOException {
+        Enumeration<NetworkInterface> all = NetworkInterface.getNetworkInterfaces();
+        while (all.hasMoreElements()){
+            NetworkInterface ni = all.nextElement();
+            if (ni.isUp() && ni.supportsMulticast() && !ni.isLoopback()) return ni;
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+}
@@ -0,0 +1,241 @@
+package chatapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Historial opcional junto al ChatServer (--history <dir>).
+ * Escucha el multicast de cada sala que el servidor conoce (como un miembro más, con NACKs para no
+ * perder mensajes) y anexa los CHAT_TEXT al RoomLog de la sala. Los clientes piden "últimos N" o
+ * "desde offset X" con HISTORY al puerto del servidor; la respuesta va por unicast a su puerto de PM
+ * como ráfaga de datagramas HISTORY con varios mensajes cada uno.
+ */
+public class HistoryService implements Closeable {
+
+    public static final int MAX_ENTRIES = 1000;                 // por pedido
+    public static final int BURST_BYTES = 8 * 1024;             // mensajes empaquetados por datagrama
+    public static final long RETAIN_BYTES = 64L * 1024 * 1024;  // por sala
+    public static final long RETAIN_MS = 7L * 24 * 3600 * 1000;
+    private static final long RETENTION_CHECK_MS = 60_000;
+    private static final int DATAGRAMS_PER_PAUSE = 16;
+    private static final String MEMBER = "#history";           // nombre con el que pide reparaciones
+    private static final int MAX_UDP_PAYLOAD = 65507;           // tope de un datagrama UDP sobre IPv4
+    private static final byte[] ELLIPSIS = "…".getBytes(StandardCharsets.UTF_8);
+
+    private final File dir;
+    private final ClientEventLoop loop = new ClientEventLoop();
+    private final DatagramChannel out;
+    private final NetworkInterface iface;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-reader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Una sala escuchada: recibe en el hilo del ClientEventLoop. */
+    private class Room implements ClientEventLoop.Endpoint {
+        final String name;
+        final InetSocketAddress groupAddr;
+        final DatagramChannel channel;
+        final MembershipKey membership;
+        final RoomLog log;
+        final ReliableMulticast reliable;
+        long nextRetention = System.currentTimeMillis() + RETENTION_CHECK_MS;
+
+        Room(String name, String maddr, int port) throws IOException {
+            this.name = name;
+            InetAddress group = InetAddress.getByName(maddr);
+            this.groupAddr = new InetSocketAddress(group, port);
+            this.log = new RoomLog(new File(dir, safeName(name)), RETAIN_BYTES, RETAIN_MS);
+            this.reliable = new ReliableMulticast(name, MEMBER);
+            this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+            this.membership = channel.join(group, iface);
+            channel.configureBlocking(false);
+        }
+
+        @Override
+        public void onDatagram(ByteBuffer datagram){
+            try {
+                Protocol.Parsed pm = Protocol.parse(datagram);
+                if (!name.equals(pm.room)) return;
+                if (pm.type == Protocol.Type.NACK){
+                    reliable.onNack(pm, System.currentTimeMillis()); // solo para suprimir los propios
+                    return;
+                }
+                if (pm.hasSeq() && !reliable.accept(pm, System.currentTimeMillis())) return;
+                if (pm.type == Protocol.Type.CHAT_TEXT) log.append(pm.from, pm.text, System.currentTimeMillis());
+            } catch (Exception e){
+                System.err.println("[SERVER] Historial ["+name+"]: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public long tick(long now){
+            try {
+                for (byte[] d : reliable.poll(now)) out.send(ByteBuffer.wrap(d), groupAddr);
+                if (now >= nextRetention){
+                    log.retain(now);
+                    nextRetention = now + RETENTION_CHECK_MS;
+                }
+            } catch (IOException e){
+                System.err.println("[SERVER] Historial ["+name+"]: " + e.getMessage());
+            }
+            return Math.min(reliable.nextDeadline(), nextRetention);
+        }
+
+        void close(){
+            membership.drop();
+            try { channel.close(); } catch (IOException ignored){}
+            try { log.close(); } catch (IOException ignored){}
+        }
+    }
+
+    public HistoryService(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("No se pudo crear " + dir);
+        this.iface = ClientEventLoop.pickInterface();
+        this.out = DatagramChannel.open(StandardProtocolFamily.INET);
+        out.setOption(StandardSocketOptions.IP_MULTICAST_IF, iface);
+        out.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+        Thread t = new Thread(loop, "history-loop");
+        t.setDaemon(true);
+        t.start();
+        System.out.println("[SERVER] Historial en "+dir.getPath()+" (interfaz "+iface.getName()+")");
+    }
+
+    /** Empieza a guardar una sala (idempotente); lo llama el servidor al conocerla. */
+    public void track(String room, String maddr, int port){
+        rooms.computeIfAbsent(room, r -> {
+            try {
+                Room info = new Room(r, maddr, port);
+                loop.register(info.channel, info);
+                System.out.println("[SERVER] Historial: guardando ["+r+"] (siguiente offset "+info.log.nextOffset()+")");
+                return info;
+            } catch (IOException e){
+                System.err.println("[SERVER] Historial: no se pudo abrir ["+r+"]: " + e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /** Pedido HISTORY ("last=N" o "since=X", más "priv=<puerto>"); se atiende fuera del hilo del servidor. */
+    public void request(Protocol.Parsed pm, InetAddress from){
+        Room room = rooms.get(pm.room);
+        String priv = Protocol.metaGet(pm.meta, "priv");
+        if (room == null || priv == null) return;
+        reader.execute(() -> serve(room, pm.meta, new InetSocketAddress(from, Integer.parseInt(priv))));
+    }
+
+    private void serve(Room room, String meta, InetSocketAddress to){
+        try {
+            String since = Protocol.metaGet(meta, "since");
+            String last = Protocol.metaGet(meta, "last");
+            int max = MAX_ENTRIES;
+            long start;
+            if (since != null){
+                start = Long.parseLong(since);
+            } else {
+                max = Math.min(MAX_ENTRIES, last == null ? 20 : Integer.parseInt(last));
+                start = Math.max(0, room.log.nextOffset() - max);
+            }
+            List<RoomLog.Entry> entries = room.log.read(start, max);
+            // tope real del datagrama: lo que deja la cabecera HISTORY dentro de un datagrama UDP
+            int limit = MAX_UDP_PAYLOAD - (Protocol.HEADER_SIZE + 6 + room.name.getBytes(StandardCharsets.UTF_8).length + "more=0".length());
+            int sent = 0, skipped = 0;
+            List<byte[]> batch = new ArrayList<>();
+            int bytes = 0;
+            for (int i = 0; i < entries.size(); i++){
+                byte[] part = encode(entries.get(i), limit);
+                if (part == null){ skipped++; continue; }
+                if (bytes + part.length > limit){ // no cabe: sale lo acumulado antes de agregarlo
+                    send(room, true, batch, bytes, to, ++sent);
+                    bytes = 0;
+                }
+                batch.add(part);
+                bytes += part.length;
+                if (bytes >= BURST_BYTES && i < entries.size() - 1){
+                    send(room, true, batch, bytes, to, ++sent);
+                    bytes = 0;
+                }
+            }
+            send(room, false, batch, bytes, to, ++sent); // el último (vacío si no había nada) cierra con more=0
+            System.out.println("[SERVER] Historial ["+room.name+"] → "+to+": "+(entries.size() - skipped)+" mensajes en "+sent+" datagramas"
+                    +(skipped > 0 ? " ("+skipped+" omitidos por tamaño)" : ""));
+        } catch (Exception e){
+            System.err.println("[SERVER] Historial: pedido inválido ("+meta+"): " + e.getMessage());
+        }
+    }
+
+    /** Un datagrama HISTORY con las entradas ya codificadas del lote (que queda vacío); pausa cada tanto. */
+    private void send(Room room, boolean more, List<byte[]> batch, int bytes, InetSocketAddress to, int sent)
+            throws IOException, InterruptedException {
+        ByteBuffer all = ByteBuffer.allocate(bytes);
+        for (byte[] p : batch) all.put(p);
+        batch.clear();
+        out.send(ByteBuffer.wrap(Protocol.buildHistory(room.name, more, all.array())), to);
+        if (sent % DATAGRAMS_PER_PAUSE == 0) Thread.sleep(1);
+    }
+
+    /**
+     * [offset i64][timestamp i64][len u16][remitente][len i32][texto]. Si no cabe en `limit` bytes el texto
+     * se recorta (terminado en "…"); null si ni el remitente entra.
+     */
+    private static byte[] encode(RoomLog.Entry e, int limit){
+        byte[] f = e.from.getBytes(StandardCharsets.UTF_8), t = e.text.getBytes(StandardCharsets.UTF_8);
+        int space = limit - 22 - f.length;
+        if (space < ELLIPSIS.length) return null;
+        if (t.length > space){
+            int end = space - ELLIPSIS.length;
+            while (end > 0 && (t[end] & 0xC0) == 0x80) end--; // no partir un carácter UTF-8
+            byte[] cut = new byte[end + ELLIPSIS.length];
+            System.arraycopy(t, 0, cut, 0, end);
+            System.arraycopy(ELLIPSIS, 0, cut, end, ELLIPSIS.length);
+            t = cut;
+        }
+        ByteBuffer b = ByteBuffer.allocate(22 + f.length + t.length);
+        b.putLong(e.offset).putLong(e.timestamp).putShort((short) f.length).put(f).putInt(t.length).put(t);
+        return b.array();
+    }
+
+    /** Mensajes de un datagrama HISTORY (lado cliente). */
+    public static List<RoomLog.Entry> decode(Protocol.Parsed pm){
+        List<RoomLog.Entry> out = new ArrayList<>();
+        ByteBuffer b = pm.binary.duplicate();
+        while (b.remaining() >= 22){
+            long offset = b.getLong(), ts = b.getLong();
+            byte[] f = new byte[b.getShort() & 0xFFFF];
+            b.get(f);
+            byte[] t = new byte[b.getInt()];
+            b.get(t);
+            out.add(new RoomLog.Entry(offset, ts, new String(f, StandardCharsets.UTF_8), new String(t, StandardCharsets.UTF_8)));
+        }
+        return out;
+    }
+
+    @Override
+    public void close(){
+        loop.close();
+        reader.shutdownNow();
+        for (Room r : rooms.values()) r.close();
+        try { out.close(); } catch (IOException ignored){}
+    }
+
+    private static String safeName(String s){
+        return s.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
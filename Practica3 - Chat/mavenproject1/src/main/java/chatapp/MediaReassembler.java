@@ -0,0 +1,144 @@
+package chatapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reensambla media fragmentada (STICKER/AUDIO con FLAG_FRAGMENT) de una sala.
+ * Cada fragmento se escribe directo en su posición de un archivo temporal, así la memoria usada
+ * no depende del tamaño de la media: solo un BitSet por mensaje en curso.
+ * Acotado: a lo sumo MAX_PENDING mensajes a la vez y MAX_MEDIA_BYTES por mensaje; lo que no
+ * progresa en TIMEOUT_MS se descarta.
+ */
+public class MediaReassembler {
+
+    public static final int MAX_PENDING = 16;
+    public static final long MAX_MEDIA_BYTES = 64L * 1024 * 1024;
+    public static final long TIMEOUT_MS = 10_000;
+
+    /** Media completa ya movida a su archivo final. */
+    public static class Completed {
+        public final Protocol.Type type;
+        public final String from;
+        public final String meta;
+        public final File file;
+        Completed(Protocol.Type type, String from, String meta, File file){
+            this.type = type; this.from = from; this.meta = meta; this.file = file;
+        }
+    }
+
+    private static class Partial {
+        final Protocol.Type type;
+        final String from;
+        final String meta;
+        final int count;
+        final BitSet got;
+        final File temp;
+        final FileChannel channel;
+        long lastActivity = System.currentTimeMillis();
+
+        Partial(Protocol.Type type, String from, String meta, int count, File temp) throws IOException {
+            this.type = type; this.from = from; this.meta = meta; this.count = count;
+            this.got = new BitSet(count);
+            this.temp = temp;
+            this.channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void discard(){
+            try { channel.close(); } catch (IOException ignored) {}
+            temp.delete();
+        }
+    }
+
+    private final File dir;
+    private final Map<String, Partial> pending = new HashMap<>(); // "remitente#id" -> mensaje en curso
+
+    public MediaReassembler(File dir){
+        this.dir = dir;
+    }
+
+    /** Procesa un fragmento; devuelve la media si con él quedó completa, o null. */
+    public Completed accept(Protocol.Parsed pm) throws IOException {
+        expire();
+        String key = pm.from + "#" + pm.msgId;
+        Partial p = pending.get(key);
+        if (p == null){
+            if ((long) pm.fragCount * Protocol.FRAGMENT_SIZE > MAX_MEDIA_BYTES){
+                System.out.println("[CLIENT] Media de "+pm.from+" demasiado grande ("+pm.fragCount+" fragmentos), ignorada.");
+                return null;
+            }
+            if (pending.size() >= MAX_PENDING) evictOldest();
+            if (!dir.exists()) dir.mkdirs();
+            p = new Partial(pm.type, pm.from, pm.meta, pm.fragCount,
+                    new File(dir, ".partial-" + safeName(pm.from) + "-" + Integer.toHexString(pm.msgId)));
+            pending.put(key, p);
+        }
+        if (pm.fragCount != p.count || p.got.get(pm.fragIndex)) return null; // duplicado o inconsistente
+        int len = pm.binary.remaining();
+        boolean last = pm.fragIndex == p.count - 1;
+        if (len > Protocol.FRAGMENT_SIZE || (!last && len != Protocol.FRAGMENT_SIZE)) return null;
+
+        long pos = (long) pm.fragIndex * Protocol.FRAGMENT_SIZE;
+        ByteBuffer data = pm.binary.duplicate();
+        while (data.hasRemaining()) pos += p.channel.write(data, pos);
+        p.got.set(pm.fragIndex);
+        p.lastActivity = System.currentTimeMillis();
+        if (p.got.cardinality() < p.count) return null;
+
+        pending.remove(key);
+        p.channel.close();
+        File target = targetFile(Protocol.metaGet(p.meta, "filename"), p);
+        Files.move(p.temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return new Completed(p.type, p.from, p.meta, target);
+    }
+
+    /** Descarta los mensajes sin progreso reciente; se llama también cuando el socket está ocioso. */
+    public void expire(){
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Partial>> it = pending.entrySet().iterator();
+        while (it.hasNext()){
+            Partial p = it.next().getValue();
+            if (now - p.lastActivity > TIMEOUT_MS){
+                System.out.println("[CLIENT] Media incompleta de "+p.from+" descartada ("
+                        + p.got.cardinality()+"/"+p.count+" fragmentos).");
+                p.discard();
+                it.remove();
+            }
+        }
+    }
+
+    public void close(){
+        for (Partial p : pending.values()) p.discard();
+        pending.clear();
+    }
+
+    private void evictOldest(){
+        String oldest = null;
+        long min = Long.MAX_VALUE;
+        for (Map.Entry<String, Partial> e : pending.entrySet()){
+            if (e.getValue().lastActivity < min){ min = e.getValue().lastActivity; oldest = e.getKey(); }
+        }
+        if (oldest != null) pending.remove(oldest).discard();
+    }
+
+    private File targetFile(String filename, Partial p){
+        if (filename == null || filename.isBlank()){
+            filename = (p.type == Protocol.Type.AUDIO ? "audio_" : "sticker_") + safeName(p.from) + "_" + System.currentTimeMillis();
+        }
+        return new File(dir, new File(filename).getName()); // sin rutas: solo el nombre
+    }
+
+    private static String safeName(String s){
+        return s.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
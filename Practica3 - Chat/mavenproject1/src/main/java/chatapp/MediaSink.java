@@ -0,0 +1,144 @@
+package chatapp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trabajo de media de una sala fuera del hilo de recepción: un hilo escribe a disco (en orden de llegada)
+ * y otro reproduce audio. La cola de disco está acotada en bytes y tareas; la recepción pregunta
+ * hasRoom() antes de aceptar un datagrama con seq y, si no cabe, lo suelta sin marcarlo recibido para que
+ * ReliableMulticast lo pida de nuevo cuando el disco se ponga al día (esa es la contrapresión).
+ * Lo que no admite reintento (sin seq, o reproducciones de más) se descarta y se cuenta.
+ */
+public class MediaSink {
+
+    public static final long MAX_QUEUED_BYTES = 8L * 1024 * 1024;
+    public static final int MAX_TASKS = 1024;
+    public static final int MAX_PLAYBACKS = 4;
+    private static final long IDLE_MS = 1000;
+    private static final long REPORT_MS = 1000;
+
+    /** Trabajo que puede fallar con E/S; el error se informa y el hilo sigue. */
+    public interface Task { void run() throws Exception; }
+
+    private final String room;
+    private final Runnable onIdle;
+    private final BlockingQueue<Runnable> disk = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    private final ThreadPoolExecutor player;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // estadística
+    private final AtomicLong written = new AtomicLong(), deferred = new AtomicLong(),
+                             dropped = new AtomicLong(), playSkipped = new AtomicLong();
+    private volatile long lastReport = 0;
+
+    /** onIdle corre en el hilo de disco cuando no hay trabajo (p.ej. expirar media incompleta). */
+    public MediaSink(String room, Runnable onIdle){
+        this.room = room;
+        this.onIdle = onIdle;
+        this.player = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PLAYBACKS), r -> daemon(r, "play-"+room));
+        this.writer = daemon(this::writeLoop, "media-"+room);
+        writer.start();
+    }
+
+    private static Thread daemon(Runnable r, String name){
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** ¿Caben `bytes` más en la cola de disco? Solo lo pregunta el hilo de recepción (único productor). */
+    public boolean hasRoom(int bytes){
+        return queuedTasks.get() < MAX_TASKS && queuedBytes.get() + bytes <= MAX_QUEUED_BYTES;
+    }
+
+    /** Un datagrama con seq que se soltó por falta de lugar: volverá por NACK. */
+    public void defer(){
+        deferred.incrementAndGet();
+        report();
+    }
+
+    /** Encola una escritura de `bytes` (ya copiados fuera del buffer de recepción); false si se descartó. */
+    public boolean write(int bytes, Task task){
+        if (!running || !hasRoom(bytes)){
+            dropped.incrementAndGet();
+            report();
+            return false;
+        }
+        queuedBytes.addAndGet(bytes);
+        queuedTasks.incrementAndGet();
+        disk.add(() -> {
+            try {
+                task.run();
+                written.addAndGet(bytes);
+            } catch (Exception e){
+                System.err.println("[CLIENT] Error guardando media en ["+room+"]: " + e.getMessage());
+            } finally {
+                queuedBytes.addAndGet(-bytes);
+                queuedTasks.decrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    /** Reproduce en su hilo; si ya hay MAX_PLAYBACKS esperando, esta se omite. */
+    public void play(Task task){
+        try {
+            player.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e){
+                    System.out.println("   (No se pudo reproducir automáticamente: "+e.getMessage()+")");
+                }
+            });
+        } catch (RejectedExecutionException e){
+            playSkipped.incrementAndGet();
+            report();
+        }
+    }
+
+    private void writeLoop(){
+        while (running || !disk.isEmpty()){
+            try {
+                Runnable r = disk.poll(IDLE_MS, TimeUnit.MILLISECONDS);
+                if (r != null) r.run();
+                else onIdle.run();
+            } catch (InterruptedException e){
+                return;
+            } catch (RuntimeException e){
+                System.err.println("[CLIENT] Error en media de ["+room+"]: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Avisa de lo descartado como mucho una vez por segundo. */
+    private void report(){
+        long now = System.currentTimeMillis();
+        if (now - lastReport < REPORT_MS) return;
+        lastReport = now;
+        System.out.println("[CLIENT] Media de ["+room+"] atrasada: " + this);
+    }
+
+    /** Termina lo encolado, corre `last` en el hilo de disco y se detiene. */
+    public void close(Runnable last){
+        disk.add(() -> { try { last.run(); } finally { running = false; } });
+        player.shutdown();
+    }
+
+    @Override
+    public String toString(){
+        return "escritos "+written.get()+" bytes, en cola "+queuedBytes.get()+" bytes/"+queuedTasks.get()
+                +" tareas, diferidos (NACK) "+deferred.get()+", descartados "+dropped.get()
+                +", reproducciones omitidas "+playSkipped.get();
+    }
+}
@@ -0,0 +1,96 @@
+package chatapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Almacén local de media direccionado por contenido: cada archivo vive una vez en "<dir>/<sha-256>".
+ * Lo comparten todas las salas del cliente (y varias instancias sobre el mismo directorio: se escribe
+ * a un temporal y se mueve de forma atómica). A downloads/<sala> se exporta con un enlace duro cuando
+ * se puede, así repetir un sticker no copia bytes.
+ */
+public class MediaStore {
+
+    private final File dir;
+
+    public MediaStore(File dir){
+        this.dir = dir;
+    }
+
+    public boolean has(String hash){
+        return isHash(hash) && file(hash).isFile();
+    }
+
+    public File file(String hash){
+        return new File(dir, hash);
+    }
+
+    /** Guarda una copia del archivo (si no estaba) y devuelve su hash. */
+    public String put(File src) throws IOException {
+        String hash = hash(src);
+        if (!has(hash)) copyIn(src, hash);
+        return hash;
+    }
+
+    /** Guarda el archivo solo si su contenido coincide con el hash anunciado. */
+    public boolean store(File src, String expected) throws IOException {
+        if (!isHash(expected) || !expected.equals(hash(src))) return false;
+        if (!has(expected)) copyIn(src, expected);
+        return true;
+    }
+
+    /** Deja la media en dir/filename (enlace duro o copia) y devuelve ese archivo. */
+    public File export(String hash, File targetDir, String filename) throws IOException {
+        if (!targetDir.exists()) targetDir.mkdirs();
+        File target = new File(targetDir, new File(filename).getName()); // sin rutas: solo el nombre
+        File src = file(hash);
+        if (target.isFile() && target.length() == src.length() && hash.equals(hash(target))) return target;
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), src.toPath());
+        } catch (IOException | UnsupportedOperationException e){
+            Files.copy(src.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    private void copyIn(File src, String hash) throws IOException {
+        if (!dir.exists()) dir.mkdirs();
+        File tmp = File.createTempFile(".in-", ".tmp", dir);
+        try {
+            Files.copy(src.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), file(hash).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** SHA-256 en hexadecimal. */
+    public static String hash(File f) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(f.toPath())){
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static boolean isHash(String s){
+        return s != null && s.matches("[0-9a-f]{64}");
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,17 +1,48 @@
 package chatapp;
 
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * Formato binario de los datagramas del chat (versión 1):
+ * <pre>
+ *   [versión u8][tipo u8][flags u8] ([época i32][seq i32] si FLAG_SEQ)
+ *   [len u16][sala UTF-8] [len u16][remitente UTF-8] [len u16][meta UTF-8]
+ *   [payload: resto del datagrama, texto UTF-8 o bytes crudos del sticker/audio]
+ * </pre>
+ * Sin URL-encoding ni Base64: la media viaja tal cual y el parser la expone como vista
+ * sobre el buffer de recepción, sin copiarla.
+ * Con FLAG_FRAGMENT el payload empieza con [id del mensaje i32][índice i32][total de fragmentos i32]:
+ * la media grande viaja en trozos de FRAGMENT_SIZE bytes (el último puede ser menor).
+ * Con FLAG_SEQ el datagrama lleva el número de secuencia del remitente en la sala (ver ReliableMulticast);
+ * NACK pide seqs faltantes ([época i32][seq i32]...) y SYNC anuncia el último seq enviado.
+ * USER_LIST es versionado: un delta con altas/bajas agrupadas ("v=..") o una página de la foto
+ * completa ("v=..;page=..;pages=.."); LIST_REQUEST pide la foto al servidor.
+ * HISTORY al servidor pide historial ("last=N" o "since=X", "priv=<puerto>"); la respuesta (HISTORY por
+ * unicast al puerto de PM) lleva mensajes empaquetados y "more=1" si la ráfaga sigue.
+ * Stickers por hash: MEDIA_OFFER anuncia "hash=<sha-256>;mime=..;filename=..;size=.." y solo quien no lo
+ * tiene responde MEDIA_REQUEST ("to=<remitente>;hash=.."); los bytes van como STICKER con "hash=..".
+ * Con FLAG_DEFLATE todo lo que sigue a la cabecera (y al seq) va comprimido con deflate crudo y el
+ * diccionario DICTIONARY compartido; se usa solo si achica el datagrama y nunca para STICKER/AUDIO/VOICE.
+ * VOICE es voz en vivo sin seq ni reparación: meta "rate=..;ch=..;stream=.." ("end=1" en la última) y
+ * payload [seq de trama i32][ms desde el inicio i32][PCM 16 bits LE].
+ */
 public final class Protocol {
 
     public enum Type {
         JOIN('J'), LEAVE('L'),
         CHAT_TEXT('T'), STICKER('S'), AUDIO('A'),
-        USER_LIST('U'),
-        PRIVATE('P'); // nuevo
+        USER_LIST('U'), LIST_REQUEST('Q'),
+        HISTORY('H'), HEARTBEAT('B'),
+        PRIVATE('P'), // nuevo
+        NACK('N'), SYNC('Y'),
+        VOICE('V'),
+        MEDIA_OFFER('O'), MEDIA_REQUEST('R');
 
         public final char code;
         Type(char c){ this.code = c; }
@@ -21,107 +52,356 @@ public final class Protocol {
         }
     }
 
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 3;
+    public static final int MAX_FIELD = 0xFFFF;       // sala/remitente/meta con prefijo u16
     public static final int MAX_DATAGRAM = 64 * 1024; // límite UDP práctico
+    public static final int FLAG_FRAGMENT = 0x01;
+    public static final int FLAG_SEQ = 0x02;
+    public static final int FLAG_DEFLATE = 0x04;
+    public static final int SEQ_HEADER = 8;
+    public static final int FRAGMENT_HEADER = 12;
+    public static final int FRAGMENT_SIZE = 8 * 1024;     // trozo de media por datagrama al fragmentar
+    public static final int MAX_SINGLE_MEDIA = 60 * 1024; // por encima de esto la media se fragmenta
+    public static final int VOICE_HEADER = 8;
+    public static final int MIN_COMPRESS = 32;            // por debajo, deflate no compensa
+
+    /**
+     * Diccionario para deflate: claves de meta y palabras frecuentes del chat (lo más común al final,
+     * donde las distancias son más cortas). Cambiarlo rompe la compatibilidad con clientes anteriores.
+     */
+    private static final byte[] DICTIONARY = utf8(
+            "mime=audio/wav;filename=audio_.wav mime=image/jpeg;filename=.jpg mime=image/png;filename=sticker_.png"
+            + ";size=;hash=since=last=more=0more=1;page=;pages=v=to=#history stream=rate=16000;ch=1"
+            + "maddr=230.0.0.;port=;priv=5000 "
+            + "buenos días buenas tardes buenas noches mañana hoy ahora ya también pero porque está estoy "
+            + "qué tal cómo estás muy bien gracias de nada por favor nos vemos adiós jajaja jaja sí no ok "
+            + "alguien sabe a qué hora para con los las una del que de la el en y hola ");
+
+    private static volatile boolean compression = true;
+    private static final AtomicLong compressedCount = new AtomicLong(), bytesBefore = new AtomicLong(), bytesAfter = new AtomicLong();
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> INFLATE_BUF = ThreadLocal.withInitial(() -> new byte[MAX_DATAGRAM]);
 
     public static class Parsed {
         public final Type type;
+        public final int flags;
         public final String room;
         public final String from;
         public final String meta;     // "mime=...;filename=..." | "to=<user>" | "maddr=...;port=...;priv=..."
         public final String text;     // texto (CHAT_TEXT, USER_LIST, PRIVATE)
-        public final byte[] binary;   // bytes (STICKER/AUDIO)
-        public Parsed(Type type, String room, String from, String meta, String text, byte[] binary){
-            this.type = type; this.room = room; this.from = from; this.meta = meta; this.text = text; this.binary = binary;
+        public final ByteBuffer binary; // bytes (STICKER/AUDIO): vista sobre el buffer recibido, válida hasta el siguiente receive
+        public final int msgId;       // solo fragmentos: id del mensaje, índice y total
+        public final int fragIndex;
+        public final int fragCount;
+        public final int epoch;       // solo con FLAG_SEQ: época y seq del remitente
+        public final int seq;
+        public Parsed(Type type, int flags, String room, String from, String meta, String text, ByteBuffer binary){
+            this(type, flags, room, from, meta, text, binary, 0, 0, 0);
+        }
+        public Parsed(Type type, int flags, String room, String from, String meta, String text, ByteBuffer binary,
+                      int msgId, int fragIndex, int fragCount){
+            this(type, flags, room, from, meta, text, binary, msgId, fragIndex, fragCount, 0, 0);
+        }
+        public Parsed(Type type, int flags, String room, String from, String meta, String text, ByteBuffer binary,
+                      int msgId, int fragIndex, int fragCount, int epoch, int seq){
+            this.type = type; this.flags = flags; this.room = room; this.from = from; this.meta = meta;
+            this.text = text; this.binary = binary;
+            this.msgId = msgId; this.fragIndex = fragIndex; this.fragCount = fragCount;
+            this.epoch = epoch; this.seq = seq;
         }
         public boolean isBinary(){ return binary != null; }
-    }
+        public boolean isFragment(){ return (flags & FLAG_FRAGMENT) != 0; }
+        public boolean hasSeq(){ return (flags & FLAG_SEQ) != 0; }
+
+        /** Copia de la media, para quien necesite conservarla más allá del buffer de recepción. */
+        public byte[] binaryBytes(){
+            if (binary == null) return null;
+            byte[] out = new byte[binary.remaining()];
+            binary.duplicate().get(out);
+            return out;
+        }
 
-    // --- helpers URL-encode/URL-decode de campos de texto ---
-    private static String enc(String s){ return s == null ? "" : URLEncoder.encode(s, StandardCharsets.UTF_8); }
-    private static String dec(String s){ return s == null ? "" : URLDecoder.decode(s, StandardCharsets.UTF_8); }
+        /** El mismo mensaje con la media copiada, para entregarlo a otro hilo. */
+        public Parsed detach(){
+            ByteBuffer copy = binary == null ? null : ByteBuffer.wrap(binaryBytes());
+            return new Parsed(type, flags, room, from, meta, text, copy, msgId, fragIndex, fragCount, epoch, seq);
+        }
+    }
 
     // --- builders ---
 
     // JOIN (compatibilidad, sin puerto privado)
     public static byte[] buildJoin(String room, String from, String maddr, int port){
-        String meta = "maddr="+maddr+";port="+port;
-        String msg = Type.JOIN.code + "|" + enc(room) + "|" + enc(from) + "|" + enc(meta) + "|";
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.JOIN, room, from, "maddr="+maddr+";port="+port, null);
     }
 
     // JOIN con puerto privado (recomendado)
     public static byte[] buildJoin(String room, String from, String maddr, int port, int privPort){
-        String meta = "maddr="+maddr+";port="+port+";priv="+privPort;
-        String msg = Type.JOIN.code + "|" + enc(room) + "|" + enc(from) + "|" + enc(meta) + "|";
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.JOIN, room, from, "maddr="+maddr+";port="+port+";priv="+privPort, null);
+    }
+
+    /** Latido de presencia: mismos datos que el JOIN, así un servidor reiniciado recupera al usuario. */
+    public static byte[] buildHeartbeat(String room, String from, String maddr, int port, int privPort){
+        return build(Type.HEARTBEAT, room, from, "maddr="+maddr+";port="+port+";priv="+privPort, null);
     }
 
     public static byte[] buildLeave(String room, String from){
-        String msg = Type.LEAVE.code + "|" + enc(room) + "|" + enc(from) + "||";
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.LEAVE, room, from, "", null);
     }
 
     public static byte[] buildChatText(String room, String from, String text){
-        String msg = Type.CHAT_TEXT.code + "|" + enc(room) + "|" + enc(from) + "||" + enc(text);
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.CHAT_TEXT, room, from, "", utf8(text));
     }
 
     public static byte[] buildSticker(String room, String from, String filename, byte[] data, String mime){
         String meta = "mime="+(mime==null?"image/png":mime)+";filename="+filename;
-        String b64 = Base64.getEncoder().encodeToString(data);
-        String msg = Type.STICKER.code + "|" + enc(room) + "|" + enc(from) + "|" + enc(meta) + "|" + b64;
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.STICKER, room, from, meta, data);
+    }
+
+    /** Sticker con su hash: la respuesta a un MEDIA_REQUEST. */
+    public static byte[] buildSticker(String room, String from, String filename, byte[] data, String mime, String hash){
+        String meta = "mime="+(mime==null?"image/png":mime)+";filename="+filename+";hash="+hash;
+        return build(Type.STICKER, room, from, meta, data);
+    }
+
+    public static byte[] buildMediaOffer(String room, String from, String hash, String filename, String mime, long size){
+        return build(Type.MEDIA_OFFER, room, from, "hash="+hash+";mime="+mime+";filename="+filename+";size="+size, null);
+    }
+
+    /** Pide al remitente `to` los bytes de la media `hash`; va al grupo para que otros no repitan el pedido. */
+    public static byte[] buildMediaRequest(String room, String from, String to, String hash){
+        return build(Type.MEDIA_REQUEST, room, from, "to="+to+";hash="+hash, null);
     }
 
     public static byte[] buildAudio(String room, String from, String filename, byte[] data, String mime){
         String meta = "mime="+(mime==null?"audio/wav":mime)+";filename="+filename;
-        String b64 = Base64.getEncoder().encodeToString(data);
-        String msg = Type.AUDIO.code + "|" + enc(room) + "|" + enc(from) + "|" + enc(meta) + "|" + b64;
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.AUDIO, room, from, meta, data);
+    }
+
+    /** Cambios de membresía agrupados: "+usuario@ip:puerto" (alta) y "-usuario" (baja), separados por comas. */
+    public static byte[] buildUserDelta(String room, long version, String changes){
+        return build(Type.USER_LIST, room, "", "v="+version, utf8(changes));
+    }
+
+    /** Una página de la foto completa de la sala en la versión dada. */
+    public static byte[] buildUserSnapshot(String room, long version, int page, int pages, String usersCSV){
+        return build(Type.USER_LIST, room, "", "v="+version+";page="+page+";pages="+pages, utf8(usersCSV));
     }
 
-    public static byte[] buildUserList(String room, String usersCSV){
-        String msg = Type.USER_LIST.code + "|" + enc(room) + "|||" + enc(usersCSV);
-        return msg.getBytes(StandardCharsets.UTF_8);
+    public static byte[] buildListRequest(String room, String from){
+        return build(Type.LIST_REQUEST, room, from, "", null);
     }
 
     // PRIVADO (room no aplica; usamos "-")
     public static byte[] buildPrivate(String from, String to, String text){
-        String meta = "to="+to;
-        String msg = Type.PRIVATE.code + "|-|"+ enc(from) + "|" + enc(meta) + "|" + enc(text);
-        return msg.getBytes(StandardCharsets.UTF_8);
+        return build(Type.PRIVATE, "-", from, "to="+to, utf8(text));
+    }
+
+    /** Un fragmento de media (STICKER/AUDIO); meta viaja en todos para que cualquiera baste para empezar. */
+    public static byte[] buildFragment(Type type, String room, String from, String filename, String mime,
+                                       int msgId, int index, int count, byte[] data, int off, int len){
+        return buildFragment(type, room, from, "mime="+mime+";filename="+filename, msgId, index, count, data, off, len);
+    }
+
+    public static byte[] buildFragment(Type type, String room, String from, String meta,
+                                       int msgId, int index, int count, byte[] data, int off, int len){
+        if (len > FRAGMENT_SIZE) throw new IllegalArgumentException("Fragmento demasiado grande: " + len);
+        byte[] r = utf8(room), f = utf8(from), m = utf8(meta);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 6 + r.length + f.length + m.length + FRAGMENT_HEADER + len);
+        out.put((byte) VERSION).put((byte) type.code).put((byte) FLAG_FRAGMENT);
+        putField(out, r);
+        putField(out, f);
+        putField(out, m);
+        out.putInt(msgId).putInt(index).putInt(count).put(data, off, len);
+        return out.array();
+    }
+
+    /** Pide al remitente `to` los seqs dados de su época `epoch`; va al grupo para que otros lo oigan. */
+    public static byte[] buildNack(String room, String from, String to, int epoch, int[] seqs, int n){
+        ByteBuffer payload = ByteBuffer.allocate(4 + 4 * n).putInt(epoch);
+        for (int i = 0; i < n; i++) payload.putInt(seqs[i]);
+        return build(Type.NACK, room, from, "to="+to, payload.array());
+    }
+
+    /** Último seq enviado por `from`: permite a los receptores detectar pérdidas al final de una ráfaga. */
+    public static byte[] buildSync(String room, String from, int epoch, int lastSeq){
+        return sequence(build(Type.SYNC, room, from, "", null), epoch, lastSeq);
+    }
+
+    /** Copia del datagrama con FLAG_SEQ y [época][seq] tras la cabecera. */
+    public static byte[] sequence(byte[] datagram, int epoch, int seq){
+        if ((datagram[2] & FLAG_SEQ) != 0) throw new IllegalArgumentException("El datagrama ya tiene seq");
+        ByteBuffer out = ByteBuffer.allocate(datagram.length + SEQ_HEADER);
+        out.put(datagram, 0, HEADER_SIZE).putInt(epoch).putInt(seq)
+           .put(datagram, HEADER_SIZE, datagram.length - HEADER_SIZE);
+        out.put(2, (byte) (datagram[2] | FLAG_SEQ));
+        return out.array();
     }
 
+    /** Una trama de voz en vivo: [seq][ms][PCM]. */
+    public static byte[] buildVoice(String room, String from, String meta, int seq, int tsMs, byte[] pcm, int len){
+        ByteBuffer payload = ByteBuffer.allocate(VOICE_HEADER + len).putInt(seq).putInt(tsMs).put(pcm, 0, len);
+        return build(Type.VOICE, room, from, meta, payload.array());
+    }
+
+    public static byte[] buildHistoryRequest(String room, String from, long since, int last, int privPort){
+        String which = since >= 0 ? "since="+since : "last="+last;
+        return build(Type.HISTORY, room, from, which+";priv="+privPort, null);
+    }
+
+    public static byte[] buildHistory(String room, boolean more, byte[] entries){
+        return build(Type.HISTORY, room, "", "more="+(more ? 1 : 0), entries);
+    }
+
+    /** Comprimir o no los datagramas que arma este proceso (los comprimidos se leen siempre). */
+    public static void setCompression(boolean enabled){
+        compression = enabled;
+    }
+
+    public static String compressionStats(){
+        return compressedCount.get()+" datagramas comprimidos, "+bytesBefore.get()+" → "+bytesAfter.get()+" bytes";
+    }
+
+    /** Deflate con el diccionario de todo lo que sigue a la cabecera; el original si no achica. */
+    static byte[] compress(byte[] datagram){
+        if (!compression || datagram.length < MIN_COMPRESS || (datagram[2] & FLAG_DEFLATE) != 0) return datagram;
+        Deflater d = DEFLATER.get();
+        d.reset();
+        d.setDictionary(DICTIONARY);
+        d.setInput(datagram, HEADER_SIZE, datagram.length - HEADER_SIZE);
+        d.finish();
+        byte[] out = new byte[datagram.length - 1];
+        int n = HEADER_SIZE;
+        while (!d.finished() && n < out.length) n += d.deflate(out, n, out.length - n);
+        if (!d.finished()) return datagram; // incompresible
+        out[0] = datagram[0]; out[1] = datagram[1];
+        out[2] = (byte) (datagram[2] | FLAG_DEFLATE);
+        compressedCount.incrementAndGet();
+        bytesBefore.addAndGet(datagram.length);
+        bytesAfter.addAndGet(n);
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Descomprime sobre el buffer del hilo: como el de recepción, la vista vale hasta el próximo parse. */
+    private static ByteBuffer inflate(ByteBuffer in){
+        Inflater inf = INFLATER.get();
+        inf.reset();
+        inf.setDictionary(DICTIONARY);
+        inf.setInput(in);
+        byte[] out = INFLATE_BUF.get();
+        int n = 0;
+        try {
+            while (!inf.finished() && n < out.length){
+                int r = inf.inflate(out, n, out.length - n);
+                if (r == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+                n += r;
+            }
+        } catch (DataFormatException e){
+            throw new IllegalArgumentException("Datagrama comprimido inválido: " + e.getMessage());
+        }
+        if (!inf.finished()) throw new IllegalArgumentException("Datagrama comprimido truncado o demasiado grande.");
+        return ByteBuffer.wrap(out, 0, n);
+    }
+
+    private static byte[] build(Type type, String room, String from, String meta, byte[] payload){
+        byte[] r = utf8(room), f = utf8(from), m = utf8(meta);
+        int size = HEADER_SIZE + 6 + r.length + f.length + m.length + (payload == null ? 0 : payload.length);
+        if (size > MAX_DATAGRAM) throw new IllegalArgumentException("Mensaje demasiado grande: " + size + " bytes");
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put((byte) VERSION).put((byte) type.code).put((byte) 0);
+        putField(out, r);
+        putField(out, f);
+        putField(out, m);
+        if (payload != null) out.put(payload);
+        return switch (type){
+            case STICKER, AUDIO, VOICE -> out.array(); // media: ya viene comprimida o no vale la pena
+            default -> compress(out.array());
+        };
+    }
+
+    private static void putField(ByteBuffer out, byte[] field){
+        if (field.length > MAX_FIELD) throw new IllegalArgumentException("Campo demasiado largo");
+        out.putShort((short) field.length).put(field);
+    }
+
+    private static byte[] utf8(String s){ return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8); }
+
     // --- parser ---
     public static Parsed parse(byte[] buf, int len){
-        String s = new String(buf, 0, len, StandardCharsets.UTF_8);
-        int p1 = s.indexOf('|');
-        if (p1 <= 0) throw new IllegalArgumentException("Datagrama malformado.");
-        Type t = Type.fromCode(s.charAt(0));
+        return parse(ByteBuffer.wrap(buf, 0, len));
+    }
 
-        String[] parts = s.substring(2).split("\\|", -1); // room|from|meta|payload
-        if (parts.length < 4) throw new IllegalArgumentException("Partes insuficientes.");
+    /** Parsea desde la posición actual de buf; la media queda como slice del mismo buffer. */
+    public static Parsed parse(ByteBuffer buf){
+        if (buf.remaining() < HEADER_SIZE + 6) throw new IllegalArgumentException("Datagrama malformado ("+buf.remaining()+" bytes).");
+        int version = buf.get() & 0xFF;
+        if (version != VERSION) throw new IllegalArgumentException("Versión de protocolo no soportada: " + version);
+        Type t = Type.fromCode((char) (buf.get() & 0xFF));
+        int flags = buf.get() & 0xFF;
+        int epoch = 0, seq = 0;
+        if ((flags & FLAG_SEQ) != 0){
+            if (buf.remaining() < SEQ_HEADER + 6) throw new IllegalArgumentException("Cabecera de secuencia truncada.");
+            epoch = buf.getInt();
+            seq = buf.getInt();
+        }
+        if ((flags & FLAG_DEFLATE) != 0) buf = inflate(buf);
 
-        String room = dec(parts[0]);
-        String from = dec(parts[1]);
-        String meta = dec(parts[2]);
-        String payload = parts[3];
+        String room = getField(buf);
+        String from = getField(buf);
+        String meta = getField(buf);
 
         switch (t){
             case CHAT_TEXT, USER_LIST, PRIVATE -> {
-                return new Parsed(t, room, from, meta, dec(payload), null);
+                return new Parsed(t, flags, room, from, meta, string(buf, buf.remaining()), null, 0, 0, 0, epoch, seq);
             }
             case STICKER, AUDIO -> {
-                byte[] bin = Base64.getDecoder().decode(payload);
-                return new Parsed(t, room, from, meta, null, bin);
+                if ((flags & FLAG_FRAGMENT) == 0)
+                    return new Parsed(t, flags, room, from, meta, null, buf.slice(), 0, 0, 0, epoch, seq);
+                if (buf.remaining() < FRAGMENT_HEADER) throw new IllegalArgumentException("Fragmento truncado.");
+                int msgId = buf.getInt(), index = buf.getInt(), count = buf.getInt();
+                if (count <= 0 || index < 0 || index >= count)
+                    throw new IllegalArgumentException("Fragmento inválido: " + index + "/" + count);
+                return new Parsed(t, flags, room, from, meta, null, buf.slice(), msgId, index, count, epoch, seq);
+            }
+            case HISTORY -> {
+                return new Parsed(t, flags, room, from, meta, null, buf.slice());
             }
-            case JOIN, LEAVE -> {
-                return new Parsed(t, room, from, meta, null, null);
+            case VOICE -> {
+                if (buf.remaining() < VOICE_HEADER) throw new IllegalArgumentException("Trama de voz truncada.");
+                return new Parsed(t, flags, room, from, meta, null, buf.slice());
+            }
+            case NACK -> {
+                if (buf.remaining() < 4 || buf.remaining() % 4 != 0) throw new IllegalArgumentException("NACK malformado.");
+                return new Parsed(t, flags, room, from, meta, null, buf.slice());
+            }
+            case JOIN, LEAVE, SYNC, LIST_REQUEST, HEARTBEAT, MEDIA_OFFER, MEDIA_REQUEST -> {
+                return new Parsed(t, flags, room, from, meta, null, null, 0, 0, 0, epoch, seq);
             }
             default -> throw new IllegalArgumentException("Tipo no soportado: " + t);
         }
     }
 
+    private static String getField(ByteBuffer buf){
+        int n = buf.getShort() & 0xFFFF;
+        if (n > buf.remaining()) throw new IllegalArgumentException("Campo truncado.");
+        return string(buf, n);
+    }
+
+    private static String string(ByteBuffer buf, int n){
+        String s;
+        if (buf.hasArray()){
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+            buf.position(buf.position() + n);
+        } else {
+            byte[] tmp = new byte[n];
+            buf.get(tmp);
+            s = new String(tmp, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
     // meta parser simplón: key=val;key2=val2
     public static String metaGet(String meta, String key){
         if (meta == null) return null;
@@ -0,0 +1,274 @@
+package chatapp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Entrega confiable sobre el multicast de una sala, sin pasar por el servidor.
+ * Emisor: cada datagrama de chat/media lleva [época][seq] propios del remitente y se guarda en un
+ * buffer de retransmisión acotado; atiende NACKs reenviando al grupo y anuncia su último seq (SYNC)
+ * al quedar ocioso para que se detecten pérdidas de cola.
+ * Receptor: detecta huecos por remitente, espera un retardo aleatorio antes de pedirlos y, si oye
+ * el NACK de otro por lo mismo, se calla y espera la reparación (supresión de NACKs estilo SRM).
+ * Entrega lo que llega (descartando duplicados); lo reparado se entrega cuando llega, sin reordenar.
+ */
+public class ReliableMulticast {
+
+    public static final int RETX_SLOTS = 2048;                 // datagramas guardados por emisor (potencia de 2)
+    public static final int RETX_MAX_BYTES = 8 * 1024 * 1024;  // y bytes como máximo
+    public static final int WINDOW = 4096;                     // seqs seguidos por remitente (potencia de 2)
+    public static final int MAX_NACK_SEQS = 256;               // seqs por datagrama NACK
+    public static final int NACK_MIN_MS = 5, NACK_MAX_MS = 45; // retardo aleatorio antes de pedir
+    public static final int REPAIR_WAIT_MS = 150;              // espera de la reparación antes de volver a pedir
+    public static final int REPAIR_HOLDOFF_MS = 50;            // no reenviar el mismo seq dos veces tan seguido
+    public static final int MAX_ATTEMPTS = 6;                  // luego el hueco se da por perdido
+    public static final int YOUNG_SENDER_SEQS = 16;            // remitente recién empezado: se recupera desde seq 0
+    private static final int[] SYNC_DELAYS_MS = {100, 500, 2000};
+
+    private final String room;
+    private final String username;
+
+    // --- emisor (hilo del REPL al enviar, hilo receptor al reparar) ---
+    private final int epoch = ThreadLocalRandom.current().nextInt();
+    private int nextSeq = 0;
+    private int oldest = 0;                                  // seq más viejo aún en el buffer
+    private final byte[][] retx = new byte[RETX_SLOTS][];
+    private final long[] lastSent = new long[RETX_SLOTS];
+    private int retxBytes = 0;
+    private int syncStep = SYNC_DELAYS_MS.length;
+    private long syncDue = Long.MAX_VALUE;
+
+    // --- receptor (solo hilo receptor) ---
+    private int echoNext = 0;                                // próximo seq propio que se entrega por loopback
+    private static class Missing {
+        long due;
+        int attempts;
+        Missing(long due){ this.due = due; }
+    }
+
+    private static class Peer {
+        int epoch;
+        int base;  // primer seq aún no recibido
+        int end;   // uno más que el mayor seq conocido
+        final BitSet got = new BitSet(WINDOW);            // índice seq & (WINDOW-1), válido en [base, end)
+        final Map<Integer, Missing> missing = new HashMap<>();
+        Peer(int epoch, int start){ this.epoch = epoch; this.base = start; this.end = start; }
+    }
+
+    private final Map<String, Peer> peers = new HashMap<>();
+    private long nextNackDue = Long.MAX_VALUE;
+
+    // contadores
+    private long repairsSent, unrepairable, nacksSent, nacksSuppressed, duplicates, lost;
+
+    public ReliableMulticast(String room, String username){
+        this.room = room; this.username = username;
+    }
+
+    // ===== emisor =====
+
+    /** Asigna el siguiente seq, guarda la copia para reparaciones y devuelve el datagrama a enviar. */
+    public synchronized byte[] stamp(byte[] datagram){
+        int seq = nextSeq++;
+        byte[] out = Protocol.sequence(datagram, epoch, seq);
+        if (seq - oldest >= RETX_SLOTS) drop(oldest++);  // el slot se reutiliza
+        int i = seq & (RETX_SLOTS - 1);
+        retx[i] = out;
+        lastSent[i] = System.currentTimeMillis();
+        retxBytes += out.length;
+        while (retxBytes > RETX_MAX_BYTES && oldest != seq) drop(oldest++);
+        syncStep = 0;
+        syncDue = lastSent[i] + SYNC_DELAYS_MS[0];
+        return out;
+    }
+
+    private void drop(int seq){
+        int i = seq & (RETX_SLOTS - 1);
+        if (retx[i] != null){ retxBytes -= retx[i].length; retx[i] = null; }
+    }
+
+    private synchronized void repairs(Protocol.Parsed nack, long now, List<byte[]> out){
+        for (int seq : nackSeqs(nack)){
+            if (seq - oldest < 0 || seq - nextSeq >= 0 || retx[seq & (RETX_SLOTS - 1)] == null){
+                unrepairable++;
+                continue;
+            }
+            int i = seq & (RETX_SLOTS - 1);
+            if (now - lastSent[i] < REPAIR_HOLDOFF_MS) continue; // ya se reenvió por otro NACK
+            lastSent[i] = now;
+            out.add(retx[i]);
+            repairsSent++;
+        }
+    }
+
+    private synchronized void pollSync(long now, List<byte[]> out){
+        if (syncStep >= SYNC_DELAYS_MS.length || now < syncDue) return;
+        out.add(Protocol.buildSync(room, username, epoch, nextSeq - 1));
+        syncStep++;
+        syncDue = syncStep < SYNC_DELAYS_MS.length ? now + SYNC_DELAYS_MS[syncStep] : Long.MAX_VALUE;
+    }
+
+    // ===== receptor =====
+
+    /**
+     * Registra un datagrama con seq (CHAT_TEXT/STICKER/AUDIO o SYNC) de otro miembro.
+     * Devuelve false si es un duplicado que no debe entregarse.
+     */
+    public boolean accept(Protocol.Parsed pm, long now){
+        if (username.equals(pm.from)){
+            if (pm.type == Protocol.Type.SYNC) return true;
+            // eco propio por loopback: llega en orden; lo que vuelve con seq menor es una reparación ya vista
+            if (pm.seq - echoNext < 0) return false;
+            echoNext = pm.seq + 1;
+            return true;
+        }
+        Peer p = peers.get(pm.from);
+        if (p == null || p.epoch != pm.epoch){
+            // remitente nuevo (o reiniciado): solo se recupera lo anterior si acaba de empezar,
+            // así perder su primer mensaje no es definitivo pero unirse a una sala activa no dispara NACKs
+            int known = pm.type == Protocol.Type.SYNC ? pm.seq + 1 : pm.seq;
+            p = new Peer(pm.epoch, known >= 0 && known <= YOUNG_SENDER_SEQS ? 0 : known);
+            peers.put(pm.from, p);
+        }
+        if (pm.type == Protocol.Type.SYNC){
+            if (pm.seq + 1 - p.end > 0) gapTo(p, pm.seq + 1, now);
+            return true;
+        }
+        int s = pm.seq;
+        if (s - p.base < 0){ duplicates++; return false; }
+        if (s - p.end >= 0){
+            gapTo(p, s, now);
+            slide(p, s + 1);
+            p.end = s + 1;
+        }
+        int idx = s & (WINDOW - 1);
+        if (p.got.get(idx)){ duplicates++; return false; }
+        p.got.set(idx);
+        p.missing.remove(s);
+        advance(p);
+        return true;
+    }
+
+    /** Marca [end, newEnd) como faltante, con su NACK programado tras un retardo aleatorio. */
+    private void gapTo(Peer p, int newEnd, long now){
+        slide(p, newEnd);
+        for (int s = p.end; s - newEnd < 0; s++){
+            long due = now + ThreadLocalRandom.current().nextInt(NACK_MIN_MS, NACK_MAX_MS + 1);
+            p.missing.put(s, new Missing(due));
+            nextNackDue = Math.min(nextNackDue, due);
+        }
+        p.end = newEnd;
+    }
+
+    /** Si newEnd no cabe en la ventana, lo más viejo se da por perdido. */
+    private void slide(Peer p, int newEnd){
+        if (newEnd - p.base <= WINDOW) return;
+        int newBase = newEnd - WINDOW;
+        for (int s = p.base; s - newBase < 0 && s - p.end < 0; s++){
+            if (!p.got.get(s & (WINDOW - 1))) lost++;
+            p.got.clear(s & (WINDOW - 1));
+            p.missing.remove(s);
+        }
+        if (p.end - newBase < 0){ lost += newBase - p.end; p.end = newBase; }
+        p.base = newBase;
+    }
+
+    private void advance(Peer p){
+        while (p.base != p.end && p.got.get(p.base & (WINDOW - 1))){
+            p.got.clear(p.base & (WINDOW - 1));
+            p.base++;
+        }
+    }
+
+    /**
+     * NACK oído en el grupo. Si me lo piden a mí, devuelve las reparaciones a reenviar;
+     * si es de otro receptor por un remitente cuyos huecos también tengo, aplazo mis NACKs.
+     */
+    public List<byte[]> onNack(Protocol.Parsed nack, long now){
+        List<byte[]> out = new ArrayList<>();
+        if (username.equals(nack.from)) return out;
+        String to = Protocol.metaGet(nack.meta, "to");
+        if (username.equals(to)){
+            if (nackEpoch(nack) == epoch) repairs(nack, now, out);
+            return out;
+        }
+        Peer p = peers.get(to);
+        if (p == null || p.epoch != nackEpoch(nack)) return out;
+        for (int seq : nackSeqs(nack)){
+            Missing m = p.missing.get(seq);
+            if (m == null) continue;
+            m.due = Math.max(m.due, now + REPAIR_WAIT_MS);
+            m.attempts++;
+            nacksSuppressed++;
+        }
+        return out;
+    }
+
+    /** Próximo instante en que poll() tiene algo que hacer (para el timeout del receive). */
+    public synchronized long nextDeadline(){
+        return Math.min(nextNackDue, syncDue);
+    }
+
+    /** NACKs vencidos (uno por remitente) y SYNC propio pendiente. */
+    public List<byte[]> poll(long now){
+        List<byte[]> out = new ArrayList<>();
+        pollSync(now, out);
+        if (now < nextNackDue) return out;
+        nextNackDue = Long.MAX_VALUE;
+        int[] seqs = new int[MAX_NACK_SEQS];
+        for (Map.Entry<String, Peer> e : peers.entrySet()){
+            Peer p = e.getValue();
+            int n = 0, given = 0;
+            Iterator<Map.Entry<Integer, Missing>> it = p.missing.entrySet().iterator();
+            while (it.hasNext()){
+                Map.Entry<Integer, Missing> me = it.next();
+                Missing m = me.getValue();
+                if (m.due <= now && n < MAX_NACK_SEQS){
+                    if (m.attempts >= MAX_ATTEMPTS){
+                        p.got.set(me.getKey() & (WINDOW - 1)); // se deja pasar para no bloquear la ventana
+                        it.remove();
+                        given++;
+                        continue;
+                    }
+                    seqs[n++] = me.getKey();
+                    m.attempts++;
+                    m.due = now + (long) REPAIR_WAIT_MS * m.attempts;
+                }
+                nextNackDue = Math.min(nextNackDue, m.due);
+            }
+            if (given > 0){
+                lost += given;
+                advance(p);
+                System.out.println("[CLIENT] Sala ["+room+"]: "+given+" mensajes de "+e.getKey()+" no se pudieron recuperar.");
+            }
+            if (n > 0){
+                out.add(Protocol.buildNack(room, username, e.getKey(), p.epoch, seqs, n));
+                nacksSent++;
+            }
+        }
+        return out;
+    }
+
+    private static int nackEpoch(Protocol.Parsed nack){
+        return nack.binary.remaining() >= 4 ? nack.binary.getInt(nack.binary.position()) : 0;
+    }
+
+    private static int[] nackSeqs(Protocol.Parsed nack){
+        int n = Math.max(0, nack.binary.remaining() / 4 - 1);
+        int[] seqs = new int[n];
+        int pos = nack.binary.position() + 4;
+        for (int i = 0; i < n; i++) seqs[i] = nack.binary.getInt(pos + 4 * i);
+        return seqs;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "enviados "+nextSeq+" (reparaciones "+repairsSent+", sin reparar "+unrepairable+"); NACKs "
+                +nacksSent+" (suprimidos "+nacksSuppressed+"); duplicados "+duplicates+"; perdidos "+lost;
+    }
+}
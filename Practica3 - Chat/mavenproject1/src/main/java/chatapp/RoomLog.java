@@ -0,0 +1,225 @@
+package chatapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Historial de una sala: log de solo-anexar partido en segmentos "<offset base>.log".
+ * Registro: [len i32][crc i32][offset i64][timestamp i64][len u16][remitente][texto UTF-8].
+ * Cada segmento lleva un índice disperso en memoria (una entrada cada INDEX_INTERVAL_BYTES) que se
+ * reconstruye al abrir; una cola a medio escribir (caída) se trunca en la recuperación.
+ * Se conservan segmentos hasta retainBytes en total y retainMs de antigüedad; se borran enteros.
+ */
+public class RoomLog implements Closeable {
+
+    public static final int SEGMENT_BYTES = 1024 * 1024;
+    public static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int RECORD_HEADER = 4 + 4 + 8 + 8 + 2;
+    private static final int MAX_RECORD = 256 * 1024;
+
+    /** Un mensaje guardado. */
+    public static class Entry {
+        public final long offset;
+        public final long timestamp;
+        public final String from;
+        public final String text;
+        public Entry(long offset, long timestamp, String from, String text){
+            this.offset = offset; this.timestamp = timestamp; this.from = from; this.text = text;
+        }
+    }
+
+    private static class Segment {
+        final long baseOffset;
+        final File file;
+        final FileChannel channel;
+        long size;
+        long lastTimestamp;
+        // índice disperso: offset relativo -> posición en el archivo
+        int[] relOffsets = new int[16];
+        int[] positions = new int[16];
+        int indexed;
+        long lastIndexedPos = -INDEX_INTERVAL_BYTES;
+
+        Segment(long baseOffset, File file) throws IOException {
+            this.baseOffset = baseOffset; this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        void index(long offset, long pos){
+            if (pos - lastIndexedPos < INDEX_INTERVAL_BYTES) return;
+            if (indexed == relOffsets.length){
+                relOffsets = Arrays.copyOf(relOffsets, indexed * 2);
+                positions = Arrays.copyOf(positions, indexed * 2);
+            }
+            relOffsets[indexed] = (int) (offset - baseOffset);
+            positions[indexed] = (int) pos;
+            indexed++;
+            lastIndexedPos = pos;
+        }
+
+        /** Posición desde la que empezar a buscar `offset` (la entrada indexada anterior o igual). */
+        long lookup(long offset){
+            int rel = (int) (offset - baseOffset);
+            int i = Arrays.binarySearch(relOffsets, 0, indexed, rel);
+            if (i < 0) i = -i - 2;
+            return i < 0 ? 0 : positions[i];
+        }
+    }
+
+    private final File dir;
+    private final long retainBytes;
+    private final long retainMs;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long nextOffset = 0;
+    private long totalBytes = 0;
+
+    public RoomLog(File dir, long retainBytes, long retainMs) throws IOException {
+        this.dir = dir; this.retainBytes = retainBytes; this.retainMs = retainMs;
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("No se pudo crear " + dir);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        if (files != null){
+            Arrays.sort(files);
+            for (File f : files){
+                long base;
+                try {
+                    base = Long.parseLong(f.getName().substring(0, f.getName().length() - 4));
+                } catch (NumberFormatException e){
+                    continue;
+                }
+                Segment s = new Segment(base, f);
+                recover(s);
+                segments.put(base, s);
+                totalBytes += s.size;
+            }
+        }
+    }
+
+    public synchronized long nextOffset(){ return nextOffset; }
+
+    /** Anexa un mensaje y devuelve su offset. */
+    public synchronized long append(String from, String text, long timestamp) throws IOException {
+        byte[] f = from.getBytes(StandardCharsets.UTF_8), t = text.getBytes(StandardCharsets.UTF_8);
+        int len = RECORD_HEADER - 4 + f.length + t.length;
+        if (len + 4 > MAX_RECORD) throw new IOException("Mensaje demasiado grande para el historial");
+        Segment s = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (s == null || s.size + len + 4 > SEGMENT_BYTES){
+            s = new Segment(nextOffset, new File(dir, String.format("%020d.log", nextOffset)));
+            segments.put(nextOffset, s);
+            retain(timestamp);
+        }
+        ByteBuffer rec = ByteBuffer.allocate(len + 4);
+        rec.putInt(len).putInt(0).putLong(nextOffset).putLong(timestamp)
+           .putShort((short) f.length).put(f).put(t);
+        CRC32 crc = new CRC32();
+        crc.update(rec.array(), 8, len - 4);
+        rec.putInt(4, (int) crc.getValue());
+        rec.flip();
+        long pos = s.size;
+        while (rec.hasRemaining()) s.channel.write(rec, pos + rec.position());
+        s.index(nextOffset, pos);
+        s.size += len + 4;
+        s.lastTimestamp = timestamp;
+        totalBytes += len + 4;
+        return nextOffset++;
+    }
+
+    /** Hasta max mensajes desde `from` (inclusive). */
+    public synchronized List<Entry> read(long from, int max) throws IOException {
+        List<Entry> out = new ArrayList<>();
+        if (segments.isEmpty()) return out;
+        Map.Entry<Long, Segment> first = segments.floorEntry(from);
+        if (first == null){ first = segments.firstEntry(); from = first.getKey(); } // lo pedido ya se borró
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        for (Segment s : segments.tailMap(first.getKey(), true).values()){
+            long pos = s.lookup(from);
+            while (pos < s.size && out.size() < max){
+                header.clear();
+                s.channel.read(header, pos);
+                int len = header.getInt(0);
+                long offset = header.getLong(8);
+                if (offset >= from){
+                    ByteBuffer body = ByteBuffer.allocate(len + 4);
+                    s.channel.read(body, pos);
+                    out.add(decode(body));
+                }
+                pos += len + 4;
+            }
+            if (out.size() >= max) break;
+        }
+        return out;
+    }
+
+    /** Borra segmentos cerrados (nunca el activo) que excedan el tamaño total o la antigüedad. */
+    public synchronized void retain(long now) throws IOException {
+        Iterator<Segment> it = segments.values().iterator();
+        while (segments.size() > 1 && it.hasNext()){
+            Segment s = it.next();
+            if (s == segments.lastEntry().getValue()) break;
+            boolean tooBig = totalBytes > retainBytes;
+            boolean tooOld = now - s.lastTimestamp > retainMs;
+            if (!tooBig && !tooOld) break;
+            s.channel.close();
+            if (!s.file.delete()) System.err.println("[SERVER] No se pudo borrar " + s.file);
+            totalBytes -= s.size;
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment s : segments.values()) s.channel.close();
+    }
+
+    /** Recorre el segmento, reconstruye el índice y trunca un registro final incompleto o corrupto. */
+    private void recover(Segment s) throws IOException {
+        long size = s.channel.size(), pos = 0;
+        ByteBuffer lenBuf = ByteBuffer.allocate(4);
+        while (pos + RECORD_HEADER <= size){
+            lenBuf.clear();
+            s.channel.read(lenBuf, pos);
+            int len = lenBuf.getInt(0);
+            if (len < RECORD_HEADER - 4 || len + 4 > MAX_RECORD || pos + 4 + len > size) break;
+            ByteBuffer body = ByteBuffer.allocate(len + 4);
+            s.channel.read(body, pos);
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 8, len - 4);
+            if ((int) crc.getValue() != body.getInt(4)) break;
+            long offset = body.getLong(8);
+            s.index(offset, pos);
+            s.lastTimestamp = body.getLong(16);
+            nextOffset = Math.max(nextOffset, offset + 1);
+            pos += len + 4;
+        }
+        if (pos < size){
+            System.err.println("[SERVER] Historial: truncando "+(size - pos)+" bytes dañados de "+s.file.getName());
+            s.channel.truncate(pos);
+        }
+        s.size = pos;
+        if (s.size == 0) s.lastTimestamp = System.currentTimeMillis();
+        nextOffset = Math.max(nextOffset, s.baseOffset);
+    }
+
+    private static Entry decode(ByteBuffer rec){
+        rec.position(8);
+        long offset = rec.getLong();
+        long ts = rec.getLong();
+        int fl = rec.getShort() & 0xFFFF;
+        String from = new String(rec.array(), rec.position(), fl, StandardCharsets.UTF_8);
+        int textPos = rec.position() + fl;
+        String text = new String(rec.array(), textPos, rec.limit() - textPos, StandardCharsets.UTF_8);
+        return new Entry(offset, ts, from, text);
+    }
+}
@@ -0,0 +1,147 @@
+package chatapp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lista de miembros de una sala en el cliente, mantenida con los USER_LIST versionados del servidor.
+ * Los deltas se aplican en orden de versión; si falta alguno (o aún no hay versión) se guardan los
+ * siguientes y se pide una foto completa, que llega en páginas y se completa con los deltas guardados.
+ */
+public class RoomRoster {
+
+    public static final int MAX_PENDING_DELTAS = 1024;
+    public static final long REQUEST_RETRY_MS = 1000;
+
+    /** Altas y bajas, para mantener la agenda de PMs del cliente. */
+    public interface Listener {
+        void onJoin(String room, String user, String addr);
+        void onLeave(String room, String user);
+    }
+
+    private final String room;
+    private final Listener listener;
+    private long version = -1;                                    // -1: aún sin foto
+    private final Map<String, String> members = new ConcurrentHashMap<>(); // usuario -> "ip:puertoPriv"
+    private final TreeMap<Long, Protocol.Parsed> pending = new TreeMap<>();  // deltas adelantados
+
+    // foto en curso
+    private long snapVersion = -1;
+    private String[] snapPages;
+    private int snapGot;
+    private long lastRequest = 0;
+
+    public RoomRoster(String room, Listener listener){
+        this.room = room; this.listener = listener;
+    }
+
+    public long version(){ return version; }
+    public int size(){ return members.size(); }
+    public boolean contains(String user){ return members.containsKey(user); }
+
+    /** Aplica un USER_LIST; devuelve true si hay que pedir la foto completa al servidor. */
+    public boolean apply(Protocol.Parsed pm, long now){
+        long v;
+        try {
+            v = Long.parseLong(Protocol.metaGet(pm.meta, "v"));
+        } catch (Exception e){
+            return false;
+        }
+        if (Protocol.metaGet(pm.meta, "page") != null) return onPage(pm, v, now);
+        if (v <= version) return false; // viejo o repetido
+        if (version >= 0 && v == version + 1){
+            applyDelta(pm);
+            version = v;
+            drainPending();
+            return false;
+        }
+        if (pending.size() >= MAX_PENDING_DELTAS) pending.pollFirstEntry();
+        pending.put(v, pm);
+        return shouldRequest(now);
+    }
+
+    private boolean onPage(Protocol.Parsed pm, long v, long now){
+        if (v <= version) return false;
+        int page, pages;
+        try {
+            page = Integer.parseInt(Protocol.metaGet(pm.meta, "page"));
+            pages = Integer.parseInt(Protocol.metaGet(pm.meta, "pages"));
+        } catch (Exception e){
+            return false;
+        }
+        if (pages <= 0 || page < 0 || page >= pages) return false;
+        if (v != snapVersion || snapPages.length != pages){
+            if (v < snapVersion) return false; // página de una foto ya superada
+            snapVersion = v;
+            snapPages = new String[pages];
+            snapGot = 0;
+        }
+        if (snapPages[page] != null) return false;
+        snapPages[page] = pm.text;
+        if (++snapGot < pages) return false;
+
+        Map<String, String> fresh = new HashMap<>();
+        for (String csv : snapPages) parseCsv(csv, fresh);
+        for (String user : members.keySet()){
+            if (!fresh.containsKey(user)){ members.remove(user); listener.onLeave(room, user); }
+        }
+        for (Map.Entry<String, String> e : fresh.entrySet()){
+            if (!e.getValue().equals(members.put(e.getKey(), e.getValue())))
+                listener.onJoin(room, e.getKey(), e.getValue());
+        }
+        version = v;
+        snapPages = null;
+        snapVersion = -1;
+        pending.headMap(version, true).clear();
+        drainPending();
+        return !pending.isEmpty() && shouldRequest(now); // sigue habiendo un hueco tras la foto
+    }
+
+    private void drainPending(){
+        while (!pending.isEmpty() && pending.firstKey() == version + 1){
+            applyDelta(pending.pollFirstEntry().getValue());
+            version++;
+        }
+    }
+
+    /** "+usuario@ip:puerto,-usuario2,..." */
+    private void applyDelta(Protocol.Parsed pm){
+        for (String item : pm.text.split(",")){
+            item = item.trim();
+            if (item.length() < 2) continue;
+            if (item.charAt(0) == '+'){
+                String[] at = item.substring(1).split("@", 2);
+                String addr = at.length == 2 ? at[1] : "";
+                members.put(at[0], addr);
+                listener.onJoin(room, at[0], addr);
+            } else if (item.charAt(0) == '-'){
+                String user = item.substring(1);
+                if (members.remove(user) != null) listener.onLeave(room, user);
+            }
+        }
+    }
+
+    private boolean shouldRequest(long now){
+        if (now - lastRequest < REQUEST_RETRY_MS) return false;
+        lastRequest = now;
+        return true;
+    }
+
+    /** "usuario@ip:puerto,usuario2@ip:puerto2" */
+    private static void parseCsv(String csv, Map<String, String> out){
+        if (csv == null || csv.isBlank()) return;
+        for (String item : csv.split(",")){
+            item = item.trim();
+            if (item.isEmpty()) continue;
+            String[] at = item.split("@", 2);
+            out.put(at[0], at.length == 2 ? at[1] : "");
+        }
+    }
+
+    @Override
+    public String toString(){
+        return String.join(", ", new TreeMap<>(members).keySet());
+    }
+}
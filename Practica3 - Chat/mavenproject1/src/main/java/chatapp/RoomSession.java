@@ -1,29 +1,84 @@
 package chatapp;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.MembershipKey;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import javax.sound.sampled.AudioFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class RoomSession implements Runnable {
+/**
+ * Una sala del cliente. Dos modos:
+ * - hilo propio: MulticastSocket con receive bloqueante (run());
+ * - selector: DatagramChannel no bloqueante atendido por el ClientEventLoop compartido,
+ *   enviando por el canal común del cliente.
+ * Los stickers se anuncian por hash (MEDIA_OFFER); quien no lo tiene en su MediaStore lo pide tras una
+ * espera al azar, y calla si otro ya lo pidió: los bytes viajan una vez por ronda, no en cada envío.
+ * La recepción solo parsea y entrega: escribir media, reensamblar y reproducir lo hace el MediaSink.
+ */
+public class RoomSession implements Runnable, ClientEventLoop.Endpoint {
 
-    /** Callback para entregar USER_LIST al cliente. */
-    public interface PeerUpdate { void onUserList(String room, String csv); }
+    /** Callback para entregar USER_LIST (delta o página de foto) al cliente. */
+    public interface PeerUpdate { void onUserList(String room, Protocol.Parsed pm); }
+
+    private static final int RECV_BUFFER = 1024 * 1024;  // holgura para ráfagas de fragmentos
+    private static final int IDLE_CHECK_MS = 1000;       // el receive despierta para los timers aunque no llegue nada
+    private static final int FRAGMENTS_PER_PAUSE = 16;   // pausa breve entre ráfagas al enviar media grande
+    private static final int REQUEST_DELAY_MS = 30;      // espera al azar antes de pedir un sticker por hash
+    private static final long FETCH_TIMEOUT_MS = 5000;   // sin bytes tras pedirlo: se vuelve a pedir
+    private static final int FETCH_ATTEMPTS = 3;
+    private static final long SERVE_INTERVAL_MS = 1000;  // pedidos del mismo hash dentro de este plazo se atienden una vez
 
     private final String room;
     private final String maddr;
     private final int port;
     private final String username;
 
-    private final MulticastSocket socket;
+    private final MulticastSocket socket;     // modo hilo
+    private final DatagramChannel channel;    // modo selector: recepción
+    private final MembershipKey membership;
+    private final DatagramChannel sender;     // modo selector: envío (compartido entre salas)
     private final InetAddress group;
+    private final InetSocketAddress groupAddr;
 
     private final PeerUpdate peerUpdate;
+    private final MediaReassembler reassembler;       // solo desde el hilo de disco del sink
+    private final MediaSink sink;
+    private final ReliableMulticast reliable;
 
     private volatile boolean running = true;
+    private volatile double dropRate = 0; // pérdida simulada al recibir (pruebas)
+    private volatile boolean nullAudio = false; // voz en vivo sin salida de audio (pruebas, servidores)
+
+    private final MediaStore media = new MediaStore(new File("media"));
+    private final Map<String, String> offered = new ConcurrentHashMap<>(); // hash -> "mime=..;filename=.." (lo servimos)
+    private final Map<String, Long> served = new ConcurrentHashMap<>();
+    private final Map<String, Fetch> fetches = new ConcurrentHashMap<>(); // hash -> pedido en curso; el sink lo cierra
+
+    /** Sticker anunciado que aún no tenemos. */
+    private static class Fetch {
+        final String from;
+        final String filename;
+        long deadline;
+        boolean requested;     // ya lo pedimos nosotros u otro miembro
+        int attempts;
+        Fetch(String from, String filename, long deadline){
+            this.from = from; this.filename = filename; this.deadline = deadline;
+        }
+    }
+
+    private final Map<String, VoicePlayer> voices = new ConcurrentHashMap<>(); // "remitente#stream"
+    private volatile VoiceSender voiceSender;
 
     public RoomSession(String room, String maddr, int port, String username, PeerUpdate cb) throws IOException {
         this.room = room; this.maddr = maddr; this.port = port; this.username = username; this.peerUpdate = cb;
@@ -31,44 +86,323 @@ public class RoomSession implements Runnable {
         this.group = InetAddress.getByName(maddr);
         if (!group.isMulticastAddress())
             throw new IllegalArgumentException("La dirección no es multicast: " + maddr);
+        this.groupAddr = new InetSocketAddress(group, port);
+        this.channel = null; this.membership = null; this.sender = null;
 
         this.socket = new MulticastSocket(port);
         this.socket.setReuseAddress(true);
         this.socket.setTimeToLive(1);
+        this.socket.setReceiveBufferSize(RECV_BUFFER);
+        this.socket.setSoTimeout(IDLE_CHECK_MS);
+        this.reassembler = new MediaReassembler(new File("downloads/"+room));
+        this.sink = new MediaSink(room, reassembler::expire);
+        this.reliable = new ReliableMulticast(room, username);
         // Advertencia deprecada en JDK recientes, funcional:
         this.socket.joinGroup(group);
 
         System.out.println("[CLIENT] Unido a sala ["+room+"] en "+maddr+":"+port);
     }
 
+    /** Modo selector: el canal queda listo para registrarse en el ClientEventLoop; se envía por `sender`. */
+    public RoomSession(String room, String maddr, int port, String username, PeerUpdate cb,
+                       DatagramChannel sender, NetworkInterface iface) throws IOException {
+        this.room = room; this.maddr = maddr; this.port = port; this.username = username; this.peerUpdate = cb;
+
+        this.group = InetAddress.getByName(maddr);
+        if (!group.isMulticastAddress())
+            throw new IllegalArgumentException("La dirección no es multicast: " + maddr);
+        this.groupAddr = new InetSocketAddress(group, port);
+        this.socket = null;
+        this.sender = sender;
+
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        this.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.channel.setOption(StandardSocketOptions.SO_RCVBUF, RECV_BUFFER);
+        this.channel.bind(new InetSocketAddress(port));
+        this.membership = channel.join(group, iface);
+        this.channel.configureBlocking(false);
+        this.reassembler = new MediaReassembler(new File("downloads/"+room));
+        this.sink = new MediaSink(room, reassembler::expire);
+        this.reliable = new ReliableMulticast(room, username);
+
+        System.out.println("[CLIENT] Unido a sala ["+room+"] en "+maddr+":"+port+" (selector)");
+    }
+
+    public String maddr(){ return maddr; }
+    public int port(){ return port; }
+
+    /** Canal a registrar en el selector (null en modo hilo). */
+    public DatagramChannel channel(){
+        return channel;
+    }
+
+    /** Descarta al azar esta fracción de los datagramas recibidos, para probar la recuperación. */
+    public void setDropRate(double dropRate){
+        this.dropRate = dropRate;
+    }
+
+    /** Reproduce la voz en vivo en un sink nulo (sin tarjeta de sonido). */
+    public void setNullAudio(boolean nullAudio){
+        this.nullAudio = nullAudio;
+    }
+
+    /** Empieza a hablar en la sala desde un WAV o, con file == null, desde el micrófono. */
+    public void startVoice(File file) throws Exception {
+        if (voiceSender != null) throw new IllegalStateException("Ya hay voz en curso en ["+room+"]");
+        VoiceSender vs = file == null ? VoiceSender.fromMic(room, username, this::send)
+                                      : VoiceSender.fromFile(room, username, this::send, file);
+        voiceSender = vs;
+        Thread t = new Thread(() -> {
+            try { vs.run(); } finally { voiceSender = null; }
+        }, "voice-"+room);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stopVoice(){
+        VoiceSender vs = voiceSender;
+        if (vs != null) vs.stop();
+    }
+
     public void sendText(String text) throws IOException {
-        byte[] data = Protocol.buildChatText(room, username, text);
-        DatagramPacket pkt = new DatagramPacket(data, data.length, group, port);
-        socket.send(pkt);
+        sendReliable(Protocol.buildChatText(room, username, text));
+    }
+
+    /** Numera el datagrama (queda guardado para reparaciones) y lo envía al grupo. */
+    private void sendReliable(byte[] data) throws IOException {
+        send(reliable.stamp(data));
+    }
+
+    private void send(byte[] data) throws IOException {
+        if (socket != null) socket.send(new DatagramPacket(data, data.length, group, port));
+        else sender.send(ByteBuffer.wrap(data), groupAddr);
     }
 
+    /** Anuncia el sticker por su hash; los bytes solo salen si alguien los pide (ver serveSticker). */
     public void sendSticker(File file, String mime) throws IOException {
-        byte[] bytes = Files.readAllBytes(file.toPath());
-        byte[] data = Protocol.buildSticker(room, username, file.getName(), bytes, mime);
-        DatagramPacket pkt = new DatagramPacket(data, data.length, group, port);
-        socket.send(pkt);
+        if (file.length() > MediaReassembler.MAX_MEDIA_BYTES)
+            throw new IOException("Archivo demasiado grande ("+file.length()+" bytes, máximo "+MediaReassembler.MAX_MEDIA_BYTES+")");
+        String hash = media.put(file);
+        offered.put(hash, "mime="+mime+";filename="+file.getName());
+        sendReliable(Protocol.buildMediaOffer(room, username, hash, file.getName(), mime, file.length()));
+        System.out.println("[CLIENT] "+file.getName()+" anunciado (sha-256 "+hash.substring(0, 12)+"...).");
+    }
+
+    /** Responde un MEDIA_REQUEST con los bytes del almacén, en otro hilo para no frenar la recepción. */
+    private void serveSticker(String hash){
+        String meta = offered.get(hash);
+        long now = System.currentTimeMillis();
+        Long last = served.get(hash);
+        if (meta == null || !media.has(hash) || (last != null && now - last < SERVE_INTERVAL_MS)) return;
+        served.put(hash, now);
+        Thread t = new Thread(() -> {
+            try {
+                File file = media.file(hash);
+                String filename = Protocol.metaGet(meta, "filename"), mime = Protocol.metaGet(meta, "mime");
+                if (file.length() > Protocol.MAX_SINGLE_MEDIA){
+                    sendFragmented(Protocol.Type.STICKER, file, filename, meta+";hash="+hash);
+                } else {
+                    sendReliable(Protocol.buildSticker(room, username, filename, Files.readAllBytes(file.toPath()), mime, hash));
+                }
+            } catch (IOException e){
+                if (running) System.err.println("[CLIENT] Error enviando sticker en ["+room+"]: " + e.getMessage());
+            }
+        }, "sticker-"+room);
+        t.setDaemon(true);
+        t.start();
     }
 
     public void sendAudio(File file, String mime) throws IOException {
+        if (file.length() > Protocol.MAX_SINGLE_MEDIA){
+            sendFragmented(Protocol.Type.AUDIO, file, file.getName(), "mime="+mime+";filename="+file.getName());
+            return;
+        }
         byte[] bytes = Files.readAllBytes(file.toPath());
-        byte[] data = Protocol.buildAudio(room, username, file.getName(), bytes, mime);
-        DatagramPacket pkt = new DatagramPacket(data, data.length, group, port);
-        socket.send(pkt);
+        sendReliable(Protocol.buildAudio(room, username, file.getName(), bytes, mime));
+    }
+
+    /** Envía la media en fragmentos de FRAGMENT_SIZE leídos del disco (no se carga entera en memoria). */
+    private void sendFragmented(Protocol.Type type, File file, String filename, String meta) throws IOException {
+        long size = file.length();
+        if (size > MediaReassembler.MAX_MEDIA_BYTES)
+            throw new IOException("Archivo demasiado grande ("+size+" bytes, máximo "+MediaReassembler.MAX_MEDIA_BYTES+")");
+        int count = (int) ((size + Protocol.FRAGMENT_SIZE - 1) / Protocol.FRAGMENT_SIZE);
+        int msgId = ThreadLocalRandom.current().nextInt();
+        byte[] chunk = new byte[Protocol.FRAGMENT_SIZE];
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            for (int i = 0; i < count; i++){
+                ByteBuffer bb = ByteBuffer.wrap(chunk);
+                while (bb.hasRemaining() && in.read(bb) > 0) { }
+                sendReliable(Protocol.buildFragment(type, room, username, meta,
+                        msgId, i, count, chunk, 0, bb.position()));
+                if ((i + 1) % FRAGMENTS_PER_PAUSE == 0) pause();
+            }
+        }
+        System.out.println("[CLIENT] "+filename+" enviado en "+count+" fragmentos.");
+    }
+
+    private static void pause(){
+        try { Thread.sleep(1); } catch (InterruptedException e){ Thread.currentThread().interrupt(); }
     }
 
     public void close(){
         running = false;
-        try {
-            // idem deprecado pero funcional
-            socket.leaveGroup(group);
-        } catch (IOException ignored) {}
-        socket.close();
-        System.out.println("[CLIENT] Saliste de sala ["+room+"].");
+        stopVoice();
+        sink.close(reassembler::close);
+        if (socket != null){
+            try {
+                // idem deprecado pero funcional
+                socket.leaveGroup(group);
+            } catch (IOException ignored) {}
+            socket.close();
+        } else {
+            membership.drop();
+            try { channel.close(); } catch (IOException ignored) {} // el selector lo da de baja solo
+        }
+        System.out.println("[CLIENT] Saliste de sala ["+room+"]. Entrega: "+reliable+"; media: "+sink);
+    }
+
+    private void onFragment(Protocol.Parsed pm){
+        if (alreadyStored(pm)) return;
+        Protocol.Parsed copy = pm.detach();
+        sink.write(copy.binary.remaining(), () -> {
+            MediaReassembler.Completed media = reassembler.accept(copy);
+            if (media != null) onCompleted(media);
+        });
+    }
+
+    /** Hilo de disco: media reensamblada completa. */
+    private void onCompleted(MediaReassembler.Completed media) throws IOException {
+        adopt(media.file, Protocol.metaGet(media.meta, "hash"));
+        String kind = media.type == Protocol.Type.AUDIO ? "audio" : "sticker";
+        System.out.println("["+room+"] "+media.from+" envió "+kind+" → "+media.file.getPath()
+                +" ("+media.file.length()+" bytes)");
+        String mime = Protocol.metaGet(media.meta, "mime");
+        if (media.type == Protocol.Type.AUDIO && mime != null && mime.startsWith("audio/")){
+            sink.play(() -> AudioUtil.playWav(media.file));
+        }
+    }
+
+    /** Media entera en un datagrama: se copia y el sink la escribe (y la reproduce, si es audio). */
+    private void onMedia(Protocol.Parsed pm){
+        if (alreadyStored(pm)) return;
+        boolean audio = pm.type == Protocol.Type.AUDIO;
+        String filename = Protocol.metaGet(pm.meta, "filename");
+        String mime = Protocol.metaGet(pm.meta, "mime");
+        String hash = Protocol.metaGet(pm.meta, "hash");
+        if (filename == null || filename.isBlank()){
+            String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            filename = (audio ? "audio_" : "sticker_")+pm.from+"_"+ts+(audio ? ".wav" : ".bin");
+        }
+        byte[] data = pm.binaryBytes();
+        String name = filename, from = pm.from;
+        sink.write(data.length, () -> {
+            File f = new File(ensureDir(new File("downloads/"+room)), new File(name).getName()); // sin rutas: solo el nombre
+            Files.write(f.toPath(), data);
+            adopt(f, hash);
+            System.out.println("["+room+"] "+from+" envió "+(audio ? "audio" : "sticker")+" → "+f.getPath());
+            if (audio && mime != null && mime.startsWith("audio/")) sink.play(() -> AudioUtil.playWav(data));
+        });
+    }
+
+    private static boolean isMedia(Protocol.Parsed pm){
+        return pm.type == Protocol.Type.STICKER || pm.type == Protocol.Type.AUDIO;
+    }
+
+    /** Bytes de un sticker que ya tenemos (los pidió otro miembro): no se vuelven a escribir. */
+    private boolean alreadyStored(Protocol.Parsed pm){
+        String hash = Protocol.metaGet(pm.meta, "hash");
+        return hash != null && !fetches.containsKey(hash) && media.has(hash);
+    }
+
+    /** Guarda en el almacén lo que llegó por hash y da por cerrado el pedido. */
+    private void adopt(File file, String hash) throws IOException {
+        if (hash == null) return;
+        if (media.store(file, hash)) fetches.remove(hash);
+        else System.out.println("[CLIENT] "+file.getName()+" no coincide con su hash anunciado; no se guarda en caché.");
+    }
+
+    private void onOffer(Protocol.Parsed pm) throws IOException {
+        String hash = Protocol.metaGet(pm.meta, "hash");
+        String filename = Protocol.metaGet(pm.meta, "filename");
+        if (hash == null) return;
+        if (filename == null || filename.isBlank()) filename = "sticker_"+hash.substring(0, 12);
+        if (media.has(hash)){
+            String name = filename, from = pm.from;
+            sink.write(0, () -> {
+                File f = media.export(hash, new File("downloads/"+room), name);
+                System.out.println("["+room+"] "+from+" envió sticker → "+f.getPath()+" (en caché)");
+            });
+            return;
+        }
+        if (!fetches.containsKey(hash)){
+            long delay = ThreadLocalRandom.current().nextInt(REQUEST_DELAY_MS + 1);
+            fetches.put(hash, new Fetch(pm.from, filename, System.currentTimeMillis() + delay));
+        }
+    }
+
+    private void onMediaRequest(Protocol.Parsed pm){
+        String hash = Protocol.metaGet(pm.meta, "hash");
+        if (hash == null) return;
+        if (username.equals(Protocol.metaGet(pm.meta, "to"))){
+            serveSticker(hash);
+            return;
+        }
+        Fetch f = fetches.get(hash);
+        if (f != null && !f.requested){ // otro ya lo pidió: esperar los bytes sin repetir el pedido
+            f.requested = true;
+            f.deadline = System.currentTimeMillis() + FETCH_TIMEOUT_MS;
+        }
+    }
+
+    /** Pide los stickers cuya espera venció; a los FETCH_ATTEMPTS sin respuesta se abandonan. */
+    private void pollFetches(long now) throws IOException {
+        Iterator<Map.Entry<String, Fetch>> it = fetches.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<String, Fetch> e = it.next();
+            Fetch f = e.getValue();
+            if (now < f.deadline) continue;
+            if (f.attempts >= FETCH_ATTEMPTS){
+                System.out.println("[CLIENT] Sticker "+f.filename+" de "+f.from+" no llegó; se abandona.");
+                it.remove();
+                continue;
+            }
+            send(Protocol.buildMediaRequest(room, username, f.from, e.getKey()));
+            f.attempts++;
+            f.requested = true;
+            f.deadline = now + FETCH_TIMEOUT_MS;
+        }
+    }
+
+    private long nextDeadline(){
+        long next = reliable.nextDeadline();
+        for (Fetch f : fetches.values()) next = Math.min(next, f.deadline);
+        return next;
+    }
+
+    /** Entrega la trama al reproductor de ese stream (lo crea con la primera). */
+    private void onVoice(Protocol.Parsed pm){
+        if (pm.from.equals(username)) return; // el eco propio por loopback no se reproduce
+        String key = pm.from + "#" + Protocol.metaGet(pm.meta, "stream");
+        boolean end = "1".equals(Protocol.metaGet(pm.meta, "end"));
+        ByteBuffer b = pm.binary.duplicate();
+        int seq = b.getInt(), ts = b.getInt();
+        byte[] pcm = new byte[b.remaining()];
+        b.get(pcm);
+        VoicePlayer player = voices.get(key);
+        if (player == null){
+            if (end) return;
+            AudioFormat format = AudioUtil.pcm16(Float.parseFloat(Protocol.metaGet(pm.meta, "rate")),
+                    Integer.parseInt(Protocol.metaGet(pm.meta, "ch")));
+            player = new VoicePlayer(room, pm.from, format,
+                    AudioUtil.openSink(format, VoicePlayer.MIN_DELAY_MS, nullAudio), p -> voices.remove(key, p));
+            voices.put(key, player);
+            System.out.println("\n["+room+"] "+pm.from+" está hablando...\n> ");
+            Thread t = new Thread(player, "voice-play-"+pm.from);
+            t.setDaemon(true);
+            t.start();
+        }
+        player.offer(seq, ts, pcm, end, System.currentTimeMillis());
     }
 
     private static File ensureDir(File dir){
@@ -76,68 +410,81 @@ public class RoomSession implements Runnable {
         return dir;
     }
 
+    /** NACKs vencidos, SYNC propio y media incompleta vencida; devuelve el próximo vencimiento. */
+    @Override
+    public long tick(long now){
+        try {
+            for (byte[] d : reliable.poll(now)) send(d);
+            pollFetches(now);
+        } catch (IOException ex){
+            if (running) System.err.println("[CLIENT] Error enviando en sala ["+room+"]: " + ex.getMessage());
+        }
+        return Math.min(now + IDLE_CHECK_MS, nextDeadline());
+    }
+
     @Override
     public void run() {
         byte[] buf = new byte[Protocol.MAX_DATAGRAM];
+        long next = 0;
         while (running){
             try {
+                long now = System.currentTimeMillis();
+                if (now >= next) next = tick(now);
+                next = Math.min(next, nextDeadline()); // un hueco nuevo adelanta el próximo NACK o pedido
+                socket.setSoTimeout((int) Math.max(1, Math.min(IDLE_CHECK_MS, next - now)));
                 DatagramPacket p = new DatagramPacket(buf, buf.length);
-                socket.receive(p);
-                Protocol.Parsed pm = Protocol.parse(p.getData(), p.getLength());
-
-                switch (pm.type){
-                    case USER_LIST -> {
-                        System.out.println("\n[USER_LIST]["+room+"]: " + pm.text + "\n> ");
-                        if (peerUpdate != null) peerUpdate.onUserList(room, pm.text);
-                    }
-                    case CHAT_TEXT -> {
-                        if (!room.equals(pm.room)) break;
-                        System.out.println("["+room+"] "+pm.from+": " + pm.text);
-                    }
-                    case STICKER -> {
-                        if (!room.equals(pm.room)) break;
-                        String filename = Protocol.metaGet(pm.meta, "filename");
-                        File out = ensureDir(new File("downloads/"+room));
-                        if (filename == null || filename.isBlank()){
-                            String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                            filename = "sticker_"+pm.from+"_"+ts+".bin";
-                        }
-                        File f = new File(out, filename);
-                        try (FileOutputStream fos = new FileOutputStream(f)){
-                            fos.write(pm.binary);
-                        }
-                        System.out.println("["+room+"] "+pm.from+" envió sticker → "+f.getPath());
-                    }
-                    case AUDIO -> {
-                        if (!room.equals(pm.room)) break;
-                        String filename = Protocol.metaGet(pm.meta, "filename");
-                        String mime = Protocol.metaGet(pm.meta, "mime");
-                        File out = ensureDir(new File("downloads/"+room));
-                        if (filename == null || filename.isBlank()){
-                            String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                            filename = "audio_"+pm.from+"_"+ts+".wav";
-                        }
-                        File f = new File(out, filename);
-                        try (FileOutputStream fos = new FileOutputStream(f)){
-                            fos.write(pm.binary);
-                        }
-                        System.out.println("["+room+"] "+pm.from+" envió audio → "+f.getPath());
-                        if (mime != null && mime.startsWith("audio/")){
-                            try {
-                                AudioUtil.playWav(pm.binary);
-                            } catch (Exception e){
-                                System.out.println("   (No se pudo reproducir automáticamente: "+e.getMessage()+")");
-                            }
-                        }
-                    }
-                    default -> { /* ignorar JOIN/LEAVE en canal multicast */ }
+                try {
+                    socket.receive(p);
+                } catch (SocketTimeoutException idle){
+                    continue;
                 }
-
+                if (!running) break; // close() durante un receive con timeout puede devolver un datagrama vacío
+                onDatagram(ByteBuffer.wrap(p.getData(), 0, p.getLength()));
             } catch (IOException ex){
                 if (running) System.err.println("[CLIENT] Error recepción sala ["+room+"]: " + ex.getMessage());
-            } catch (Exception ex){
-                System.err.println("[CLIENT] Error parseando datagrama: " + ex.getMessage());
             }
         }
     }
+
+    /** Parsea y atiende un datagrama de la sala; la vista solo es válida durante la llamada. */
+    @Override
+    public void onDatagram(ByteBuffer datagram){
+        if (!running) return;
+        if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) return;
+        try {
+            Protocol.Parsed pm = Protocol.parse(datagram);
+
+            if (!room.equals(pm.room)) return; // otra sala que comparte el puerto
+            if (pm.type == Protocol.Type.NACK){
+                for (byte[] d : reliable.onNack(pm, System.currentTimeMillis())) send(d);
+                return;
+            }
+            if (pm.hasSeq() && isMedia(pm) && !sink.hasRoom(pm.binary.remaining())){
+                sink.defer(); // disco atrasado: sin marcarlo recibido, volverá por NACK
+                return;
+            }
+            if (pm.hasSeq() && !reliable.accept(pm, System.currentTimeMillis())) return; // duplicado
+
+            if (pm.isFragment()){
+                onFragment(pm);
+                return;
+            }
+            switch (pm.type){
+                case USER_LIST -> {
+                    if (peerUpdate != null) peerUpdate.onUserList(room, pm);
+                }
+                case CHAT_TEXT -> System.out.println("["+room+"] "+pm.from+": " + pm.text);
+                case MEDIA_OFFER -> onOffer(pm);
+                case MEDIA_REQUEST -> onMediaRequest(pm);
+                case STICKER, AUDIO -> onMedia(pm);
+                case VOICE -> onVoice(pm);
+                default -> { /* ignorar JOIN/LEAVE en canal multicast */ }
+            }
+
+        } catch (IOException ex){
+            if (running) System.err.println("[CLIENT] Error recepción sala ["+room+"]: " + ex.getMessage());
+        } catch (Exception ex){
+            System.err.println("[CLIENT] Error parseando datagrama: " + ex.getMessage());
+        }
+    }
 }
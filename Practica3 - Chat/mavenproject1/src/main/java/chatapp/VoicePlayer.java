@@ -0,0 +1,175 @@
+package chatapp;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Reproduce la voz en vivo de un remitente (un stream) con un buffer de jitter adaptativo.
+ * La recepción solo guarda la trama en su casilla; un hilo propio la saca cada FRAME_MS.
+ * - Retardo objetivo: una trama más 3 veces el jitter estimado (como RFC 3550, ganancia 1/16),
+ *   entre MIN_DELAY_MS y MAX_DELAY_MS. Al empezar, y tras quedarse sin datos, se espera a tenerlo.
+ * - Si sobran tramas por encima del objetivo se salta una, para bajar la latencia.
+ * - Trama perdida: se repite la anterior atenuada (hasta MAX_CONCEAL veces) y luego silencio;
+ *   una trama que llega después de su turno se descarta.
+ */
+public class VoicePlayer implements Runnable {
+
+    public static final int SLOTS = 64;              // 1.28 s de tramas de 20 ms
+    public static final int MIN_DELAY_MS = 40;
+    public static final int MAX_DELAY_MS = 200;
+    public static final int MAX_CONCEAL = 3;
+    public static final long IDLE_TIMEOUT_MS = 2000;  // stream sin tramas ni fin: se cierra
+
+    /** Aviso al terminar, para que la sesión olvide el stream. */
+    public interface Done { void onDone(VoicePlayer player); }
+
+    private final String room;
+    private final String from;
+    private final AudioFormat format;
+    private final AudioUtil.Sink sink;
+    private final Done done;
+
+    private final byte[][] slots = new byte[SLOTS][];
+    private final int[] slotSeq = new int[SLOTS];
+    private int frameMs = VoiceSender.FRAME_MS;
+    private int nextSeq = -1;       // próxima a reproducir (-1: aún sin empezar)
+    private int highest = -1;       // mayor seq recibido
+    private int endSeq = -1;
+    private boolean buffering = true;
+    private long lastArrival = System.currentTimeMillis();
+    private double jitter = 0;
+    private long prevTransit = Long.MIN_VALUE;
+
+    // estadística
+    private int played, concealed, late, skipped, rebuffers;
+
+    public VoicePlayer(String room, String from, AudioFormat format, AudioUtil.Sink sink, Done done){
+        this.room = room; this.from = from; this.format = format; this.sink = sink; this.done = done;
+    }
+
+    /** Guarda una trama recibida ([seq][ts ms] + PCM, ya copiada fuera del buffer de recepción). */
+    public synchronized void offer(int seq, int tsMs, byte[] pcm, boolean end, long now){
+        lastArrival = now;
+        if (end){ endSeq = seq; notifyAll(); return; }
+        if (pcm.length == 0 || seq < 0) return;
+        if (nextSeq >= 0 && seq < nextSeq){ late++; return; }
+        if (highest >= 0 && seq - highest >= SLOTS){ late++; return; } // muy adelantada: fuera de ventana
+        frameMs = Math.max(1, Math.round(pcm.length * 1000f / (format.getFrameRate() * format.getFrameSize())));
+
+        long transit = now - tsMs;
+        if (prevTransit != Long.MIN_VALUE) jitter += (Math.abs(transit - prevTransit) - jitter) / 16;
+        prevTransit = transit;
+
+        slots[seq % SLOTS] = pcm;
+        slotSeq[seq % SLOTS] = seq;
+        highest = Math.max(highest, seq);
+        notifyAll();
+    }
+
+    /** Retardo de reproducción objetivo en tramas. */
+    private int targetFrames(){
+        double ms = Math.min(MAX_DELAY_MS, Math.max(MIN_DELAY_MS, frameMs + 3 * jitter));
+        return (int) Math.ceil(ms / frameMs);
+    }
+
+    private int buffered(){
+        return nextSeq < 0 ? (highest < 0 ? 0 : 1) : Math.max(0, highest - nextSeq + 1);
+    }
+
+    private byte[] take(int seq){
+        int i = seq % SLOTS;
+        byte[] pcm = slots[i];
+        if (pcm == null || slotSeq[i] != seq) return null;
+        slots[i] = null;
+        return pcm;
+    }
+
+    @Override
+    public void run(){
+        byte[] last = null;
+        int lost = 0;
+        long next = System.nanoTime();
+        try {
+            while (true){
+                byte[] out;
+                synchronized (this){
+                    // (re)llenar hasta el retardo objetivo
+                    while (buffering){
+                        int first = firstBuffered();
+                        if (endSeq >= 0 || System.currentTimeMillis() - lastArrival > IDLE_TIMEOUT_MS){
+                            if (first < 0) return;
+                        } else if (first < 0 || highest - first + 1 < targetFrames()){
+                            wait(frameMs);
+                            continue;
+                        }
+                        buffering = false;
+                        nextSeq = first;
+                        next = System.nanoTime();
+                    }
+                    if (endSeq >= 0 && nextSeq >= endSeq) return;
+                    if (buffered() > targetFrames() + 2 && take(nextSeq) != null){ skipped++; nextSeq++; }
+                    out = take(nextSeq);
+                    if (out == null && nextSeq > highest){
+                        if (System.currentTimeMillis() - lastArrival > IDLE_TIMEOUT_MS) return;
+                        if (lost >= MAX_CONCEAL && endSeq < 0){ // sin datos: volver a llenar
+                            rebuffers++;
+                            buffering = true;
+                            lost = 0;
+                            last = null;
+                            continue;
+                        }
+                    }
+                    nextSeq++;
+                }
+                if (out != null){
+                    played++;
+                    lost = 0;
+                    last = out;
+                } else {
+                    concealed++;
+                    out = conceal(last, ++lost);
+                }
+                if (out != null) sink.write(out, 0, out.length);
+                next += frameMs * 1_000_000L;
+                long wait = next - System.nanoTime();
+                if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } finally {
+            sink.close();
+            System.out.println("\n["+room+"] Voz de "+from+" terminó: "+this+"\n> ");
+            done.onDone(this);
+        }
+    }
+
+    /** Primera trama guardada a partir de nextSeq (o la más vieja al empezar); -1 si no hay. */
+    private int firstBuffered(){
+        int from = nextSeq >= 0 ? nextSeq : Math.max(0, highest - SLOTS + 1);
+        for (int s = from; s <= highest; s++){
+            int i = s % SLOTS;
+            if (slots[i] != null && slotSeq[i] == s) return s;
+        }
+        return -1;
+    }
+
+    /** La última trama buena, cada vez a la mitad de volumen; tras MAX_CONCEAL, silencio. */
+    private byte[] conceal(byte[] last, int lost){
+        if (last == null) return null;
+        byte[] out = new byte[last.length];
+        if (lost > MAX_CONCEAL) return out;
+        int shift = lost;
+        for (int i = 0; i + 1 < out.length; i += 2){
+            int sample = (short) ((last[i] & 0xFF) | (last[i + 1] << 8));
+            sample >>= shift;
+            out[i] = (byte) sample;
+            out[i + 1] = (byte) (sample >> 8);
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return played+" tramas, "+concealed+" ocultadas, "+late+" tardías, "+skipped+" saltadas, "
+                +rebuffers+" re-llenados, jitter "+Math.round(jitter)+" ms, retardo "+targetFrames() * frameMs+" ms";
+    }
+}
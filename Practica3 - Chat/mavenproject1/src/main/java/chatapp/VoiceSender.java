@@ -0,0 +1,98 @@
+package chatapp;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Voz en vivo hacia una sala: corta PCM de 16 bits en tramas de FRAME_MS y manda cada una en un
+ * datagrama VOICE en cuanto está lista. La fuente es un WAV (al ritmo real, como si se hablara)
+ * o el micrófono. Sin seq de ReliableMulticast: una trama que llega tarde ya no sirve.
+ */
+public class VoiceSender implements Runnable {
+
+    public static final int FRAME_MS = 20;
+    private static final AudioFormat MIC_FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    /** Manda un datagrama a la sala. */
+    public interface Output { void send(byte[] datagram) throws IOException; }
+
+    private final String room;
+    private final String username;
+    private final Output out;
+    private final AudioInputStream source;
+    private final TargetDataLine line;   // null si la fuente es un archivo
+    private final int stream = ThreadLocalRandom.current().nextInt();
+    private volatile boolean running = true;
+
+    private VoiceSender(String room, String username, Output out, AudioInputStream source, TargetDataLine line){
+        this.room = room; this.username = username; this.out = out; this.source = source; this.line = line;
+    }
+
+    /** Desde un WAV (se convierte a PCM 16 bits con signo, little-endian). */
+    public static VoiceSender fromFile(String room, String username, Output out, File wav)
+            throws IOException, UnsupportedAudioFileException {
+        return new VoiceSender(room, username, out, AudioUtil.toPcm16(AudioSystem.getAudioInputStream(wav)), null);
+    }
+
+    /** Desde la entrada de línea / micrófono por defecto. */
+    public static VoiceSender fromMic(String room, String username, Output out) throws LineUnavailableException {
+        TargetDataLine mic = AudioSystem.getTargetDataLine(MIC_FORMAT);
+        mic.open(MIC_FORMAT, frameBytes(MIC_FORMAT) * 4);
+        mic.start();
+        return new VoiceSender(room, username, out, new AudioInputStream(mic), mic);
+    }
+
+    static int frameBytes(AudioFormat f){
+        return Math.round(f.getSampleRate() * FRAME_MS / 1000f) * f.getFrameSize();
+    }
+
+    public void stop(){
+        running = false;
+    }
+
+    @Override
+    public void run(){
+        AudioFormat f = source.getFormat();
+        String meta = "rate="+Math.round(f.getSampleRate())+";ch="+f.getChannels()+";stream="+stream;
+        byte[] frame = new byte[frameBytes(f)];
+        int seq = 0;
+        long start = System.nanoTime();
+        try {
+            while (running){
+                int n = readFully(frame);
+                if (n <= 0) break;
+                if (line == null) paceUntil(start + seq * FRAME_MS * 1_000_000L); // el archivo no marca el ritmo
+                out.send(Protocol.buildVoice(room, username, meta, seq, seq * FRAME_MS, frame, n));
+                seq++;
+                if (n < frame.length) break;
+            }
+            out.send(Protocol.buildVoice(room, username, meta+";end=1", seq, seq * FRAME_MS, frame, 0));
+            System.out.println("[CLIENT] Voz en ["+room+"] terminada: "+seq+" tramas ("+(seq * FRAME_MS / 1000.0)+" s)");
+        } catch (IOException e){
+            System.err.println("[CLIENT] Voz en ["+room+"] interrumpida: " + e.getMessage());
+        } finally {
+            if (line != null){ line.stop(); line.close(); }
+            try { source.close(); } catch (IOException ignored){}
+        }
+    }
+
+    private int readFully(byte[] buf) throws IOException {
+        int n = 0;
+        while (n < buf.length && running){
+            int r = source.read(buf, n, buf.length - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+
+    private static void paceUntil(long deadlineNanos){
+        long wait;
+        while ((wait = deadlineNanos - System.nanoTime()) > 0){
+            try { Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000)); }
+            catch (InterruptedException e){ Thread.currentThread().interrupt(); return; }
+        }
+    }
+}